@@ -0,0 +1,40 @@
+package io.github.kachaya.kkbd;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import io.github.kachaya.kkbd.engine.Storage;
+
+// アプリのfilesディレクトリとassetsを使うStorage
+public class AndroidStorage implements Storage {
+    private final Context mContext;
+
+    public AndroidStorage(Context context) {
+        mContext = context;
+    }
+
+    @NonNull
+    @Override
+    public File getFile(@NonNull String name) {
+        return new File(mContext.getFilesDir(), name);
+    }
+
+    // APKの中のファイルを直接マップする
+    // openFdできるのはnoCompressで格納したものだけ
+    @NonNull
+    @Override
+    public ByteBuffer mapAsset(@NonNull String name) throws IOException {
+        AssetFileDescriptor afd = mContext.getAssets().openFd(name);
+        try (FileInputStream fis = afd.createInputStream()) {     // 閉じるとafdも閉じる
+            return fis.getChannel().map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.kachaya.kkbd;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.OverScroller;
+
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 候補表示
+// 候補ごとにViewを作らず、見えている候補だけを描画する
+public class CandidateView extends View {
+
+    private final InputService mInputService;
+    private final Paint mTextPaint;
+    private final Paint mBackgroundPaint;
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+    private final int mColorCandidateSelect;
+    private final int mColorCandidateNormal;
+    private final int mColorSeparator;
+    private final float mPadding;
+    private final GestureDetector mGestureDetector;
+    private final OverScroller mScroller;
+    //
+    private final ArrayList<String> mCandidates = new ArrayList<>();
+    private float[] mLeft = new float[16];     // 各候補の左端、[size]は右端
+    private int mSelected = -1;
+
+    public CandidateView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        mInputService = (InputService) context;
+
+        mColorCandidateSelect = ContextCompat.getColor(context, R.color.gray_4);
+        mColorCandidateNormal = ContextCompat.getColor(context, R.color.gray_2);
+        mColorSeparator = ContextCompat.getColor(context, R.color.black);
+
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mTextPaint.setColor(ContextCompat.getColor(context, R.color.white));
+        mTextPaint.setTextSize(getResources().getDimension(R.dimen.candidate_button_text_size));
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mBackgroundPaint = new Paint();
+        mPadding = 12 * getResources().getDisplayMetrics().density;
+
+        mScroller = new OverScroller(context);
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                mScroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                int index = indexAt(e.getX());
+                if (index >= 0) {
+                    mInputService.clickCandidate(index);
+                }
+                return true;
+            }
+
+            @Override
+            public void onLongPress(MotionEvent e) {
+                int index = indexAt(e.getX());
+                if (index >= 0) {
+                    mInputService.longClickCandidate(index);
+                }
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                scrollTo(clampScrollX(getScrollX() + (int) distanceX), 0);
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                mScroller.fling(getScrollX(), 0, (int) -velocityX, 0, 0, maxScrollX(), 0, 0);
+                postInvalidateOnAnimation();
+                return true;
+            }
+        });
+        mGestureDetector.setIsLongpressEnabled(true);
+    }
+
+    public void clear() {
+        mCandidates.clear();
+        mSelected = -1;
+        mScroller.forceFinished(true);
+        scrollTo(0, 0);
+        setVisibility(INVISIBLE);
+    }
+
+    public void setCandidates(List<String> candidates) {
+        mSelected = -1;
+        mScroller.forceFinished(true);
+        scrollTo(0, 0);
+        // 前回と同じ候補なら配置を計算し直さない
+        if (!mCandidates.equals(candidates)) {
+            mCandidates.clear();
+            mCandidates.addAll(candidates);
+            int size = mCandidates.size();
+            if (mLeft.length < size + 1) {
+                mLeft = Arrays.copyOf(mLeft, Math.max(size + 1, mLeft.length * 2));
+            }
+            float x = 0;
+            for (int i = 0; i < size; i++) {
+                mLeft[i] = x;
+                x += mTextPaint.measureText(mCandidates.get(i)) + mPadding * 2;
+            }
+            mLeft[size] = x;
+        }
+        setVisibility(VISIBLE);
+        invalidate();
+    }
+
+    // 候補を選択状態にして見える場所にスクロールする
+    public void selectCandidate(int index) {
+        if (index < 0 || index >= mCandidates.size()) {
+            return;
+        }
+        mSelected = index;
+        int cX = getScrollX();
+        int cW = getWidth();
+        int bL = (int) mLeft[index];
+        int bR = (int) Math.ceil(mLeft[index + 1]);
+        if (bL < cX) {
+            scrollTo(bL, 0);
+        }
+        if (bR > (cX + cW)) {
+            scrollTo(clampScrollX(bR - cW), 0);
+        }
+        invalidate();
+    }
+
+    private int maxScrollX() {
+        return Math.max(0, (int) Math.ceil(mLeft[mCandidates.size()]) - getWidth());
+    }
+
+    private int clampScrollX(int x) {
+        return Math.max(0, Math.min(x, maxScrollX()));
+    }
+
+    // 表示座標にある候補の番号
+    private int indexAt(float x) {
+        return findIndex(x + getScrollX());
+    }
+
+    // 位置にある候補の番号(二分探索)
+    private int findIndex(float pos) {
+        int size = mCandidates.size();
+        if (size == 0 || pos < 0 || pos >= mLeft[size]) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = size - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (mLeft[mid] <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return mGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(mScroller.getCurrX(), 0);
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int size = mCandidates.size();
+        if (size == 0) {
+            return;
+        }
+        int height = getHeight();
+        int scrollX = getScrollX();
+        mTextPaint.getFontMetrics(mFontMetrics);
+        float baseline = (height - mFontMetrics.ascent - mFontMetrics.descent) / 2;
+
+        int first = Math.max(0, findIndex(scrollX));
+        for (int i = first; i < size && mLeft[i] < scrollX + getWidth(); i++) {
+            float left = mLeft[i];
+            float right = mLeft[i + 1];
+            mBackgroundPaint.setColor(i == mSelected ? mColorCandidateSelect : mColorCandidateNormal);
+            canvas.drawRect(left, 0, right, height, mBackgroundPaint);
+            mBackgroundPaint.setColor(mColorSeparator);
+            canvas.drawRect(right - 1, 0, right, height, mBackgroundPaint);
+            canvas.drawText(mCandidates.get(i), (left + right) / 2, baseline, mTextPaint);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.kachaya.kkbd;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.kachaya.kkbd.engine.CandidateList;
+import io.github.kachaya.kkbd.engine.Clause;
+import io.github.kachaya.kkbd.engine.ConversionEngine;
+
+// 変換をメインスレッド以外で行う
+// 要求ごとに世代番号を振り、新しい要求が来た時点で古い要求の結果は捨てる
+public class ConversionWorker {
+
+    public interface Callback {
+        // ライブ変換結果(メインスレッドで呼ばれる)
+        void onLiveConversion(String text);
+
+        // 提案結果(メインスレッドで呼ばれる)
+        void onSuggestion(CandidateList candidates);
+
+        // 変換結果(メインスレッドで呼ばれる)
+        void onConversion(ArrayList<Clause> clauses);
+    }
+
+    private final ConversionEngine mEngine;
+    private final Callback mCallback;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    public ConversionWorker(ConversionEngine engine, Callback callback) {
+        mEngine = engine;
+        mCallback = callback;
+        mThread = new HandlerThread("ConversionWorker");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public void quit() {
+        cancel();
+        mThread.quitSafely();
+    }
+
+    // 処理中・待機中の要求を取り消す
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        mHandler.removeCallbacksAndMessages(null);
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private boolean isCancelled(int generation) {
+        return generation != mGeneration.get();
+    }
+
+    // 提案要求、liveならライブ変換も行う
+    public void requestSuggestion(CharSequence composing, int inputMode, boolean live) {
+        cancel();
+        final int generation = mGeneration.get();
+        final String reading = composing.toString();
+        final int mode = getMode(inputMode);
+        mHandler.post(() -> {
+            if (live) {
+                long start = System.nanoTime();
+                String text = mEngine.liveConvert(reading, mode);
+                Latency.record(Latency.STAGE_LIVE, start);
+                deliver(generation, () -> mCallback.onLiveConversion(text));
+            }
+            long start = System.nanoTime();
+            CandidateList candidates = mEngine.suggest(reading, mode, () -> isCancelled(generation));
+            if (candidates != null) {
+                Latency.record(Latency.STAGE_LOOKUP, start);
+                deliver(generation, () -> mCallback.onSuggestion(candidates));
+            }
+        });
+    }
+
+    // 変換要求
+    // 文節に区切って変換する、firstLengthが0でなければ最初の文節をその長さにする
+    public void requestConversion(CharSequence composing, int inputMode, int firstLength) {
+        cancel();
+        final int generation = mGeneration.get();
+        final String reading = composing.toString();
+        final int mode = getMode(inputMode);
+        mHandler.post(() -> {
+            long start = System.nanoTime();
+            ArrayList<Clause> clauses = mEngine.convert(reading, mode, firstLength, () -> isCancelled(generation));
+            if (clauses != null) {
+                Latency.record(Latency.STAGE_CONVERT, start);
+                deliver(generation, () -> mCallback.onConversion(clauses));
+            }
+        });
+    }
+
+    private static int getMode(int inputMode) {
+        if (inputMode == InputService.INPUT_MODE_KATAKANA_WIDE) {
+            return ConversionEngine.MODE_KATAKANA;
+        }
+        return ConversionEngine.MODE_HIRAGANA;
+    }
+
+    private void deliver(int generation, Runnable r) {
+        mMainHandler.post(() -> {
+            if (!isCancelled(generation)) {
+                r.run();
+            }
+        });
+    }
+}
@@ -3,6 +3,9 @@ package io.github.kachaya.kkbd;
 import android.content.SharedPreferences;
 import android.inputmethodservice.InputMethodService;
 import android.text.InputType;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
@@ -11,10 +14,19 @@ import android.view.inputmethod.InputConnection;
 
 import androidx.preference.PreferenceManager;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Comparator;
 
-public class InputService extends InputMethodService {
+import io.github.kachaya.kkbd.engine.CandidateList;
+import io.github.kachaya.kkbd.engine.Clause;
+import io.github.kachaya.kkbd.engine.ConversionEngine;
+import io.github.kachaya.kkbd.engine.Converter;
+import io.github.kachaya.kkbd.engine.Dictionary;
+import io.github.kachaya.kkbd.engine.KeyTrace;
+
+public class InputService extends InputMethodService implements ConversionWorker.Callback {
 
     public final static int INPUT_MODE_QWERTY_HALF = 0;
     public final static int INPUT_MODE_QWERTY_WIDE = 1;
@@ -25,35 +37,63 @@ public class InputService extends InputMethodService {
     public final static int SHIFT_STATE_SINGLE = 1;
     public final static int SHIFT_STATE_LOCK = 2;
     private final static int SHIFT_STATE_NUM = 3;
+    private final static int CLAUSE_COLOR = 0x4033B5E5;    // 選択中の文節の背景色
 
     //
     private final StringBuilder mComposing = new StringBuilder();
 
     // 候補
-    private final ArrayList<String> mCandidateKey = new ArrayList<>();    // 辞書検索キー
-    private final ArrayList<String> mCandidateValue = new ArrayList<>();   // 辞書登録語句
-    private final ArrayList<String> mCandidateText = new ArrayList<>();   // 表示用
+    private CandidateList mCandidates = new CandidateList();
     private int mCandidateNum;
     private int mCandidateIndex;
+    // 文節(候補は選択中の文節のもの)
+    private final ArrayList<Clause> mClauses = new ArrayList<>();
+    private int mClauseIndex;
+    // ライブ変換
+    private boolean mLiveConversion;
+    private String mLiveText;   // 変換結果、届くまではnull
+    // 最後に表示した変換結果とその読み(入力を終えるまで残す)
+    private String mShownLiveText;
+    private String mShownLiveReading;
     //
     private int mInputMode;
     private int mShiftState;
     private boolean mShiftToggle;
     private InputView mInputView;
     private Dictionary mDictionary;
+    private ConversionWorker mConversionWorker;
+    private KeyTrace mKeyTrace;     // 記録しないときはnull
+    private long mKeyTime;          // 候補表示までの時間を測るキー入力の時刻、0なら測らない
 
     @Override
     public void onCreate() {
         super.onCreate();
-        mDictionary = new Dictionary(this);
+        mDictionary = SharedDictionary.acquire(this);
+        mConversionWorker = new ConversionWorker(new ConversionEngine(mDictionary), this);
     }
 
     @Override
     public void onDestroy() {
-        mDictionary.commit();
+        mConversionWorker.quit();
+        SharedDictionary.release();
+        if (mKeyTrace != null) {
+            mKeyTrace.close();
+        }
         super.onDestroy();
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+        super.dump(fd, fout, args);
+        if (mDictionary != null) {
+            fout.println("Main dictionary revision: " + mDictionary.getMainDicRevision());
+            for (String layer : mDictionary.getLayerInfo()) {
+                fout.println("  " + layer);
+            }
+        }
+        Latency.dump(fout);
+    }
+
     @Override
     public boolean onEvaluateFullscreenMode() {
         return false;   // フルスクリーンモード無効
@@ -82,6 +122,9 @@ public class InputService extends InputMethodService {
         //Log.d(TAG, "onFinishInput");
         startLatinHalfMode();
         mDictionary.commit();
+        if (mKeyTrace != null) {
+            mKeyTrace.flush();
+        }
         super.onFinishInput();
     }
 
@@ -99,6 +142,17 @@ public class InputService extends InputMethodService {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
 
         mShiftToggle = sharedPreferences.getBoolean("shift_toggle", true);
+        mLiveConversion = sharedPreferences.getBoolean("live_conversion", false);
+
+        if (sharedPreferences.getBoolean("record_trace", false)) {
+            if (mKeyTrace == null) {
+                mKeyTrace = new KeyTrace(new File(getFilesDir(), "key_trace.bin"));
+            }
+        } else if (mKeyTrace != null) {
+            mKeyTrace.close();
+            mKeyTrace = null;
+        }
+        trace(KeyTrace.EVENT_START, mLiveConversion ? 1 : 0);
 
         boolean startKana = sharedPreferences.getBoolean("start_kana", true);
         if (startKana) {
@@ -137,6 +191,7 @@ public class InputService extends InputMethodService {
         mInputMode = INPUT_MODE_QWERTY_HALF;
         mShiftState = SHIFT_STATE_NONE;
         mInputView.setKeyboard(mInputMode, mShiftState);
+        trace(KeyTrace.EVENT_MODE, mInputMode);
     }
 
     private void startLatinWideMode() {
@@ -144,6 +199,7 @@ public class InputService extends InputMethodService {
         mInputMode = INPUT_MODE_QWERTY_WIDE;
         mShiftState = SHIFT_STATE_NONE;
         mInputView.setKeyboard(mInputMode, mShiftState);
+        trace(KeyTrace.EVENT_MODE, mInputMode);
     }
 
     private void startHiraganaWideMode() {
@@ -151,6 +207,7 @@ public class InputService extends InputMethodService {
         mInputMode = INPUT_MODE_HIRAGANA_WIDE;
         mShiftState = SHIFT_STATE_NONE;
         mInputView.setKeyboard(mInputMode, mShiftState);
+        trace(KeyTrace.EVENT_MODE, mInputMode);
     }
 
     private void startKatakanaWideMode() {
@@ -158,6 +215,7 @@ public class InputService extends InputMethodService {
         mInputMode = INPUT_MODE_KATAKANA_WIDE;
         mShiftState = SHIFT_STATE_NONE;
         mInputView.setKeyboard(mInputMode, mShiftState);
+        trace(KeyTrace.EVENT_MODE, mInputMode);
     }
 
     private void startKatakanaHalfMode() {
@@ -165,6 +223,17 @@ public class InputService extends InputMethodService {
         mInputMode = INPUT_MODE_KATAKANA_HALF;
         mShiftState = SHIFT_STATE_NONE;
         mInputView.setKeyboard(mInputMode, mShiftState);
+        trace(KeyTrace.EVENT_MODE, mInputMode);
+    }
+
+    // キー入力の記録
+    // 書き込めなくなったら設定をオフにする(記録していないのにオンのままにしない)
+    private void trace(int event, int arg) {
+        if (mKeyTrace != null && !mKeyTrace.record(event, arg)) {
+            mKeyTrace.close();
+            mKeyTrace = null;
+            PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean("record_trace", false).apply();
+        }
     }
 
     private void icCommitText(CharSequence cs) {
@@ -174,6 +243,11 @@ public class InputService extends InputMethodService {
         }
     }
 
+    // 未変換の文字列を確定する、ライブ変換中なら変換結果
+    private void icCommitComposing() {
+        icCommitText(mLiveText != null ? mLiveText : mComposing);
+    }
+
     private void icCommitChar(char ch) {
         sendKeyChar(ch);
     }
@@ -181,7 +255,9 @@ public class InputService extends InputMethodService {
     private void icSetComposingText(CharSequence cs) {
         InputConnection ic = getCurrentInputConnection();
         if (ic != null) {
+            long start = System.nanoTime();
             ic.setComposingText(cs, 1);
+            Latency.record(Latency.STAGE_COMPOSING, start);
         }
     }
 
@@ -216,6 +292,9 @@ public class InputService extends InputMethodService {
             default:
                 return;
         }
+        trace(KeyTrace.EVENT_CHAR, ch);    // かな入力のみ記録する
+        long start = System.nanoTime();
+        mKeyTime = start;
 
         // 候補選択済みで新しい文字が入力されたら確定
         if (mCandidateIndex >= 0) {
@@ -226,16 +305,16 @@ public class InputService extends InputMethodService {
         // 濁点・半濁点処理
         int len = mComposing.length();
         if (len > 0) {
-            Character c;
+            char c;
             if (ch == '゛') {
                 c = Converter.combineDakuten(mComposing.charAt(len - 1));
-                if (c != null) {
+                if (c != 0) {
                     mComposing.deleteCharAt(len - 1);
                     ch = c;
                 }
             } else if (ch == '゜') {
                 c = Converter.combineHandakuten(mComposing.charAt(len - 1));
-                if (c != null) {
+                if (c != 0) {
                     mComposing.deleteCharAt(len - 1);
                     ch = c;
                 }
@@ -248,11 +327,13 @@ public class InputService extends InputMethodService {
             mInputView.setKeyboard(mInputMode, mShiftState);
         }
         updateSuggestion();
+        Latency.record(Latency.STAGE_KEY, start);
     }
 
     // スペースキー
     public void handleSpace() {
         //Log.d(TAG, "handleSpace");
+        trace(KeyTrace.EVENT_SPACE, 0);
 
         if (mComposing.length() == 0) {
             char c;
@@ -283,7 +364,7 @@ public class InputService extends InputMethodService {
         if (mCandidateIndex >= 0) {
             commitCandidate();
         } else {
-            icCommitText(mComposing);
+            icCommitComposing();
         }
         switch (mInputMode) {
             case INPUT_MODE_QWERTY_HALF:
@@ -305,7 +386,7 @@ public class InputService extends InputMethodService {
         if (mCandidateIndex >= 0) {
             commitCandidate();
         } else {
-            icCommitText(mComposing);
+            icCommitComposing();
         }
         switch (mInputMode) {
             case INPUT_MODE_QWERTY_HALF:
@@ -343,31 +424,46 @@ public class InputService extends InputMethodService {
     }
 
     // カーソル左
+    // 変換中はShiftで文節を縮め、複数の文節があれば前の文節へ移る
     public void handleCursorLeft() {
         //Log.d(TAG, "handleCursorLeft");
         if (mComposing.length() == 0) {
             icSendDpadLeftKey();
         } else {
-            if (mCandidateIndex >= 0) {
-                selectPrevCandidate();
+            if (mCandidateIndex >= 0 && mCandidateNum > 0) {
+                if (mShiftState != SHIFT_STATE_NONE) {
+                    resizeClause(-1);
+                } else if (mClauses.size() > 1) {
+                    focusClause(Math.max(mClauseIndex - 1, 0));
+                } else {
+                    selectPrevCandidate();
+                }
             }
         }
     }
 
     // カーソル右
+    // 変換中はShiftで文節を伸ばし、複数の文節があれば次の文節へ移る
     public void handleCursorRight() {
         //Log.d(TAG, "handleCursorRight");
         if (mComposing.length() == 0) {
             icSendDpadRightKey();
         } else {
-            if (mCandidateIndex >= 0) {
-                selectNextCandidate();
+            if (mCandidateIndex >= 0 && mCandidateNum > 0) {
+                if (mShiftState != SHIFT_STATE_NONE) {
+                    resizeClause(1);
+                } else if (mClauses.size() > 1) {
+                    focusClause(Math.min(mClauseIndex + 1, mClauses.size() - 1));
+                } else {
+                    selectNextCandidate();
+                }
             }
         }
     }
 
     // Backspace
     public void handleBackspace() {
+        trace(KeyTrace.EVENT_BACKSPACE, 0);
         int len = mComposing.length();
         if (len == 0) {
             icSendDelKey();
@@ -389,13 +485,14 @@ public class InputService extends InputMethodService {
 
     // Enter
     public void handleEnter() {
+        trace(KeyTrace.EVENT_ENTER, 0);
         if (mComposing.length() == 0) {
             icSendEnterKey();
         } else {
             if (mCandidateIndex >= 0) {
                 commitCandidate();
             } else {
-                icCommitText(mComposing);
+                icCommitComposing();
             }
             resetComposing();
         }
@@ -403,244 +500,196 @@ public class InputService extends InputMethodService {
 
     private void selectNextCandidate() {
         if (mCandidateNum > 0) {
-            mCandidateIndex = (mCandidateIndex + 1) % mCandidateNum;  // 次候補
-            icSetComposingText(mCandidateValue.get(mCandidateIndex));
-            mInputView.selectCandidate(mCandidateIndex);
+            selectCandidate((mCandidateIndex + 1) % mCandidateNum);    // 次候補
         }
     }
 
     private void selectPrevCandidate() {
         if (mCandidateNum > 0) {
-            mCandidateIndex = (mCandidateIndex + mCandidateNum - 1) % mCandidateNum;    // 前候補
-            icSetComposingText(mCandidateValue.get(mCandidateIndex));
-            mInputView.selectCandidate(mCandidateIndex);
+            selectCandidate((mCandidateIndex + mCandidateNum - 1) % mCandidateNum);    // 前候補
         }
     }
 
+    // 選択中の文節の候補を選ぶ
+    private void selectCandidate(int index) {
+        mCandidateIndex = index;
+        mClauses.get(mClauseIndex).index = index;
+        mInputView.selectCandidate(mCandidateIndex);
+        updateComposingClauses();
+    }
+
+    // 文節を選ぶ
+    private void focusClause(int clauseIndex) {
+        Clause clause = mClauses.get(clauseIndex);
+        mClauseIndex = clauseIndex;
+        mCandidates = clause.candidates;
+        mCandidateNum = mCandidates.size();
+        mCandidateIndex = clause.index;
+        setCandidates(mCandidates);
+        mInputView.selectCandidate(mCandidateIndex);
+        updateComposingClauses();
+    }
+
+    // 選択中の文節の長さを変え、それより後ろを区切り直す
+    private void resizeClause(int delta) {
+        if (mShiftState == SHIFT_STATE_SINGLE) {
+            mShiftState = SHIFT_STATE_NONE;
+            mInputView.setKeyboard(mInputMode, mShiftState);
+        }
+        int start = getClausesLength(mClauseIndex);
+        int length = mClauses.get(mClauseIndex).reading.length() + delta;
+        if (length < 1 || start + length > mComposing.length()) {
+            return;
+        }
+        mConversionWorker.cancel();
+        mClauses.subList(mClauseIndex, mClauses.size()).clear();
+        mCandidateNum = 0;  // 結果が届くまで候補は選べない(表示は前のまま)
+        updateComposingClauses();
+        mConversionWorker.requestConversion(mComposing.subSequence(start, mComposing.length()), mInputMode, length);
+    }
+
+    // 先頭からcount個の文節の読みの長さ
+    private int getClausesLength(int count) {
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            length += mClauses.get(i).reading.length();
+        }
+        return length;
+    }
+
+    // 変換中の文字列を表示する、区切り直し中の部分は読みのまま
+    private void updateComposingClauses() {
+        SpannableStringBuilder sb = new SpannableStringBuilder();
+        for (int i = 0; i < mClauses.size(); i++) {
+            int start = sb.length();
+            sb.append(mClauses.get(i).getText());
+            if (i == mClauseIndex && mClauses.size() > 1) {
+                sb.setSpan(new BackgroundColorSpan(CLAUSE_COLOR), start, sb.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+        sb.append(mComposing, getClausesLength(mClauses.size()), mComposing.length());
+        icSetComposingText(sb);
+    }
+
     private void resetComposing() {
         mInputView.setSpaceButtonLabel("␣");
         icSetComposingText("");
         mComposing.setLength(0);
         resetCandidate();
+        mInputView.clearCandidates();
+        mShownLiveText = null;
+        mShownLiveReading = null;
     }
 
+    // 候補の状態を戻す
+    // 候補の表示は、ちらつかないように次の結果が届くまで(入力を終えるまで)前のまま残す
     private void resetCandidate() {
+        mConversionWorker.cancel();     // 検索中の結果は不要
         mCandidateNum = 0;
         mCandidateIndex = -1;   // 未選択
-        mCandidateKey.clear();
-        mCandidateValue.clear();
-        mCandidateText.clear();
-        mInputView.clearCandidates();
-    }
-
-    private void addCandidate(String key, String value, String text) {
-        if (!mCandidateText.contains(text)) {
-            mCandidateKey.add(key);
-            mCandidateValue.add(value);
-            mCandidateText.add(text);
-        }
-    }
-
-    private void addCandidate(int index, String key, String value, String text) {
-        if (!mCandidateText.contains(text)) {
-            mCandidateKey.add(index, key);
-            mCandidateValue.add(index, value);
-            mCandidateText.add(index, text);
-        }
+        mCandidates = new CandidateList();
+        mClauses.clear();
+        mClauseIndex = 0;
+        mLiveText = null;
     }
 
+    // すべての文節を確定する
     private void commitCandidate() {
-        String key = mCandidateKey.get(mCandidateIndex);
-        String value = mCandidateValue.get(mCandidateIndex);
-        String text = mCandidateText.get(mCandidateIndex);
-        mDictionary.add(key, value);
-        icCommitText(text);
+        StringBuilder sb = new StringBuilder();
+        for (Clause clause : mClauses) {
+            CandidateList.Candidate candidate = clause.candidates.get(clause.index);
+            mDictionary.add(candidate.key, candidate.value);
+            sb.append(candidate.text);
+        }
+        sb.append(mComposing, getClausesLength(mClauses.size()), mComposing.length());
+        icCommitText(sb);
     }
 
-    // 入力ビューからの候補ボタンクリックは確定
+    // 入力ビューからの候補ボタンクリックは文節の確定、最後の文節なら全体を確定
     public void clickCandidate(int index) {
-        mCandidateIndex = index;
+        if (index >= mCandidateNum) {
+            return;     // 結果待ちの間に表示している前の候補
+        }
+        trace(KeyTrace.EVENT_CANDIDATE, index);
+        if (mCandidateIndex >= 0 && mClauseIndex < mClauses.size() - 1) {
+            selectCandidate(index);
+            focusClause(mClauseIndex + 1);
+            return;
+        }
+        if (mCandidateIndex < 0) {
+            // 提案からの選択
+            mClauses.add(new Clause(mComposing.toString(), mCandidates, index));
+        } else {
+            selectCandidate(index);
+        }
         commitCandidate();
         resetComposing();
     }
 
     // 候補長押しで削除
     public void longClickCandidate(int index) {
-        String key = mCandidateKey.get(index);
-        String value = mCandidateValue.get(index);
+        if (index >= mCandidateNum) {
+            return;
+        }
+        String key = mCandidates.getKey(index);
+        String value = mCandidates.getValue(index);
         mDictionary.delete(key, value);
         updateSuggestion();
     }
 
     // 提案
+    // 入力した文字はすぐに表示し、ライブ変換中は変換結果が届いたら置き換える
+    // 前の変換結果の読みに続けて入力したときは、その変換結果の後ろに未変換の文字を足して表示する
     private void updateSuggestion() {
-        ArrayList<String> keys;
-
-        String hiragana = Converter.toWideHiragana(mComposing);
-        String katakana = Converter.toWideKatakana(hiragana);
-        String text;
-
+        long start = System.nanoTime();
         resetCandidate();
-
-        addCandidate(hiragana, hiragana, hiragana);
-        addCandidate(hiragana, katakana, katakana);
-
-        // ユーザ辞書から
-        keys = mDictionary.getUserKeys(hiragana);
-        keys.sort(Comparator.comparingInt(String::length).reversed().thenComparing(Comparator.naturalOrder()));
-
-        for (int i = 0; i < keys.size(); i++) {
-            String key = keys.get(i);
-            char ch = key.charAt(key.length() - 1);
-            if (ch >= 'a' && ch <= 'z') {
-                continue;   // 送りなしエントリだけが対象
-            }
-            String[] values = mDictionary.searchUserDic(key);
-            if (values != null) {
-                for (String value : values) {
-                    text = value;
-                    if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
-                        text = Converter.toWideKatakana(text);
-                    }
-                    addCandidate(key, value, text);
-                }
-            }
+        if (mLiveConversion && mShownLiveText != null && mComposing.length() > mShownLiveReading.length()
+                && mComposing.indexOf(mShownLiveReading) == 0) {
+            icSetComposingText(mShownLiveText + mComposing.substring(mShownLiveReading.length()));
+        } else {
+            icSetComposingText(mComposing);
         }
-
-        mCandidateIndex = -1;
-        mCandidateNum = mCandidateText.size();
-        mInputView.setCandidates(mCandidateText);
-        icSetComposingText(mComposing);
-
         mInputView.setSpaceButtonLabel("変換");
+        mConversionWorker.requestSuggestion(mComposing, mInputMode, mLiveConversion);
+        Latency.record(Latency.STAGE_SUGGEST_REQUEST, start);
     }
 
-    private void startConversion() {
-        resetCandidate();
-
-        String key;
-        int len;
-        String firstKey;
-        String secondKey;
-        String ascii;
-        String okuri;
-        String[] values;
-        String text;
-
-        key = Converter.toWideHiragana(mComposing);
-        len = key.length();
-
-        // 入力したものでユーザ辞書検索
-        values = mDictionary.searchUserDic(key);
-        if (values != null) {
-            for (String value : values) {
-                text = value;
-                if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
-                    text = Converter.toWideKatakana(text);
-                }
-                addCandidate(key, value, text);
-            }
-        }
-        // 後ろから分割してユーザ辞書検索
-        for (int pos = len - 1; pos > 0; pos--) {
-            firstKey = key.substring(0, pos);
-            secondKey = key.substring(pos, len);
-            if (secondKey.charAt(0) == 'っ') {
-                if (secondKey.length() >= 2) {
-                    okuri = secondKey.substring(0, 2);
-                } else {
-                    okuri = "";
-                }
-            } else {
-                okuri = secondKey.substring(0, 1);
-            }
-            ascii = Converter.getOkuriAscii(okuri);
-            if (ascii != null) {
-                values = mDictionary.searchUserDic(firstKey + ascii);
-                if (values != null) {
-                    for (String value : values) {
-                        text = value + secondKey;
-                        if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
-                            text = Converter.toWideKatakana(text);
-                        }
-                        addCandidate(key, value + secondKey, text);
-                    }
-                }
-            }
-            values = mDictionary.searchUserDic(firstKey);
-            if (values != null) {
-                for (String value : values) {
-                    text = value + secondKey;
-                    if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
-                        text = Converter.toWideKatakana(text);
-                    }
-                    addCandidate(firstKey, value, text);
-                }
-            }
-        }
+    @Override
+    public void onLiveConversion(String text) {
+        mLiveText = text;
+        mShownLiveText = text;
+        mShownLiveReading = mComposing.toString();   // 古い結果は届かない
+        icSetComposingText(text);
+    }
 
-        // 入力したものそのままでメイン辞書検索
-        values = mDictionary.searchMainDic(key);
-        if (values != null) {
-            for (String value : values) {
-                text = value;
-                if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
-                    text = Converter.toWideKatakana(text);
-                }
-                addCandidate(key, value, text);
-            }
-        }
-        // 後ろから分割してメイン辞書検索
-        for (int pos = len - 1; pos > 0; pos--) {
-            firstKey = key.substring(0, pos);
-            secondKey = key.substring(pos, len);
-            if (secondKey.charAt(0) == 'っ') {
-                if (secondKey.length() >= 2) {
-                    okuri = secondKey.substring(0, 2);
-                } else {
-                    okuri = "";
-                }
-            } else {
-                okuri = secondKey.substring(0, 1);
-            }
-            ascii = Converter.getOkuriAscii(okuri);
-            if (ascii != null) {
-                // 送りあり
-                values = mDictionary.searchMainDic(firstKey + ascii);
-                if (values != null) {
-                    for (String value : values) {
-                        text = value + secondKey;
-                        if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
-                            text = Converter.toWideKatakana(text);
-                        }
-                        addCandidate(firstKey + okuri, value + okuri, text);
-                    }
-                }
-            }
-            // 送りなし
-            values = mDictionary.searchMainDic(firstKey);
-            if (values != null) {
-                for (String value : values) {
-                    text = value + secondKey;
-                    if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
-                        text = Converter.toWideKatakana(text);
-                    }
-                    addCandidate(firstKey, value, text);
-                }
-            }
+    @Override
+    public void onSuggestion(CandidateList candidates) {
+        mCandidates = candidates;
+        mCandidateIndex = -1;
+        mCandidateNum = mCandidates.size();
+        setCandidates(mCandidates);
+        if (mKeyTime != 0) {
+            Latency.record(Latency.STAGE_KEY_TO_CANDIDATES, mKeyTime);
+            mKeyTime = 0;
         }
+    }
 
-        text = Converter.toWideKatakana(key);
-        addCandidate(0, key, text, text);
-        addCandidate(0, key, key, key);
-
-        mCandidateNum = mCandidateText.size();
-        mInputView.setCandidates(mCandidateText);
+    private void setCandidates(CandidateList candidates) {
+        long start = System.nanoTime();
+        mInputView.setCandidates(candidates.getTexts());
+        Latency.record(Latency.STAGE_CANDIDATES, start);
+    }
 
-        mCandidateIndex = 0;
-        mInputView.selectCandidate(mCandidateIndex);
-        icSetComposingText(mCandidateText.get(mCandidateIndex));
+    private void startConversion() {
+        resetCandidate();
+        mConversionWorker.requestConversion(mComposing, mInputMode, 0);
+    }
 
+    // 変換結果、区切り直しのときは選択中の文節から後ろが届く
+    @Override
+    public void onConversion(ArrayList<Clause> clauses) {
+        mClauses.addAll(clauses);
+        focusClause(mClauseIndex);
         mInputView.setSpaceButtonLabel("選択");
     }
 }
@@ -0,0 +1,316 @@
+package io.github.kachaya.kkbd;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.util.AttributeSet;
+import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.core.view.ViewCompat;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import androidx.customview.widget.ExploreByTouchHelper;
+
+import java.util.Arrays;
+import java.util.List;
+
+// 文字キー部分のソフトキーボード
+// キーごとにButtonを作らず、1つのViewでキートップの描画と当たり判定を行う
+// Buttonと同じように、押したときに触覚フィードバック、入力したときにクリック音を出す
+// ユーザ補助(TalkBack)にはキーを仮想のViewとして見せる
+public class KeyboardView extends View {
+
+    final static int KEYBOARD_QWERTY_HALF_NORMAL = 0;
+    final static int KEYBOARD_QWERTY_HALF_SHIFT = 1;
+    final static int KEYBOARD_QWERTY_WIDE_NORMAL = 2;
+    final static int KEYBOARD_QWERTY_WIDE_SHIFT = 3;
+    final static int KEYBOARD_HIRAGANA_WIDE_NORMAL = 4;
+    final static int KEYBOARD_HIRAGANA_WIDE_SHIFT = 5;
+    final static int KEYBOARD_KATAKANA_WIDE_NORMAL = 6;
+    final static int KEYBOARD_KATAKANA_WIDE_SHIFT = 7;
+    final static int KEYBOARD_KATAKANA_HALF_NORMAL = 8;
+    final static int KEYBOARD_KATAKANA_HALF_SHIFT = 9;
+    // ソフトキーボードに表示する文字[10種類][4行][12列]
+    private final static int KEYBOARD_ROWS = 4;
+    private final static int KEYBOARD_COLS = 12;
+    private final String[][][] keyboardLabel = {
+            {   // 0:QwertyHalfNormal
+                    {"1", "2", "3", "4", "5", "6", "7", "8", "9", "0", "-", "^"},
+                    {"q", "w", "e", "r", "t", "y", "u", "i", "o", "p", "@", "["},
+                    {"a", "s", "d", "f", "g", "h", "j", "k", "l", ";", ":", "]"},
+                    {"z", "x", "c", "v", "b", "n", "m", ",", ".", "/", "\\", "\u00A5"},
+            },
+            {   // 1:QwertyHalfShift
+                    {"!", "\"", "#", "$", "%", "&", "'", "(", ")", "", "=", "~"},
+                    {"Q", "W", "E", "R", "T", "Y", "U", "I", "O", "P", "`", "{"},
+                    {"A", "S", "D", "F", "G", "H", "J", "K", "L", "+", "*", "}"},
+                    {"Z", "X", "C", "V", "B", "N", "M", "<", ">", "?", "_", "|"},
+            },
+            {   // 2:QwertyWideNormal
+                    {"１", "２", "３", "４", "５", "６", "７", "８", "９", "０", "－", "＾"},
+                    {"ｑ", "ｗ", "ｅ", "ｒ", "ｔ", "ｙ", "ｕ", "ｉ", "ｏ", "ｐ", "＠", "［"},
+                    {"ａ", "ｓ", "ｄ", "ｆ", "ｇ", "ｈ", "ｊ", "ｋ", "ｌ", "；", "：", "］"},
+                    {"ｚ", "ｘ", "ｃ", "ｖ", "ｂ", "ｎ", "ｍ", "，", "．", "／", "＼", "￥"},
+            },
+            {   // 3:QwertyWideShift
+                    {"！", "”", "＃", "＄", "％", "＆", "’", "（", "）", "", "＝", "～"},
+                    {"Ｑ", "Ｗ", "Ｅ", "Ｒ", "Ｔ", "Ｙ", "Ｕ", "Ｉ", "Ｏ", "Ｐ", "｀", "｛"},
+                    {"Ａ", "Ｓ", "Ｄ", "Ｆ", "Ｇ", "Ｈ", "Ｊ", "Ｋ", "Ｌ", "＋", "＊", "｝"},
+                    {"Ｚ", "Ｘ", "Ｃ", "Ｖ", "Ｂ", "Ｎ", "Ｍ", "＜", "＞", "？", "＿", "｜"},
+            },
+            {   // 4:HiraganaWideNormal
+                    {"ぬ", "ふ", "あ", "う", "え", "お", "や", "ゆ", "よ", "わ", "ほ", "へ"},
+                    {"た", "て", "い", "す", "か", "ん", "な", "に", "ら", "せ", "゛", "゜"},
+                    {"ち", "と", "し", "は", "き", "く", "ま", "の", "り", "れ", "け", "む"},
+                    {"つ", "さ", "そ", "ひ", "こ", "み", "も", "ね", "る", "め", "ろ", "ー"},
+            },
+            {   // 5:HiraganaWideShift
+                    {"", "", "ぁ", "ぅ", "ぇ", "ぉ", "ゃ", "ゅ", "ょ", "を", "", ""},
+                    {"", "", "ぃ", "", "ゕ", "", "ゐ", "ゑ", "～", "ゝ", "ゞ", "「"},
+                    {"", "", "", "", "", "", "", "", "", "", "ゖ", "」"},
+                    {"っ", "", "", "（", "）", "？", "！", "、", "。", "・", "", ""},
+            },
+            {   // 6:KatakanaWideNormal
+                    {"ヌ", "フ", "ア", "ウ", "エ", "オ", "ヤ", "ユ", "ヨ", "ワ", "ホ", "ヘ"},
+                    {"タ", "テ", "イ", "ス", "カ", "ン", "ナ", "ニ", "ラ", "セ", "゛", "゜"},
+                    {"チ", "ト", "シ", "ハ", "キ", "ク", "マ", "ノ", "リ", "レ", "ケ", "ム"},
+                    {"ツ", "サ", "ソ", "ヒ", "コ", "ミ", "モ", "ネ", "ル", "メ", "ロ", "ー"},
+            },
+            {   // 7:KatakanaWideShift
+                    {"", "", "ァ", "ゥ", "ェ", "ォ", "ャ", "ュ", "ョ", "ヲ", "", ""},
+                    {"", "", "ィ", "", "ヵ", "", "ヰ", "ヱ", "～", "ヽ", "ヾ", "「"},
+                    {"", "", "", "", "", "", "", "", "", "", "ヶ", "」"},
+                    {"ッ", "", "", "（", "）", "？", "！", "、", "。", "・", "", ""},
+            },
+            {   // 8:KatakanaHalfNormal
+                    {"ﾇ", "ﾌ", "ｱ", "ｳ", "ｴ", "ｵ", "ﾔ", "ﾕ", "ﾖ", "ﾜ", "ﾎ", "ﾍ"},
+                    {"ﾀ", "ﾃ", "ｲ", "ｽ", "ｶ", "ﾝ", "ﾅ", "ﾆ", "ﾗ", "ｾ", "ﾞ", "ﾟ"},
+                    {"ﾁ", "ﾄ", "ｼ", "ﾊ", "ｷ", "ｸ", "ﾏ", "ﾉ", "ﾘ", "ﾚ", "ｹ", "ﾑ"},
+                    {"ﾂ", "ｻ", "ｿ", "ﾋ", "ｺ", "ﾐ", "ﾓ", "ﾈ", "ﾙ", "ﾒ", "ﾛ", "ｰ"},
+            },
+            {   // 9:KatakanaHalfShift
+                    {"", "", "ｧ", "ｩ", "ｪ", "ｫ", "ｬ", "ｭ", "ｮ", "ｦ", "", ""},
+                    {"", "", "ｨ", "", "", "", "", "", "", "", "", "｢"},
+                    {"", "", "", "", "", "", "", "", "", "", "", "｣"},
+                    {"ｯ", "", "", "", "", "", "", "､", "｡", "･", "", ""},
+            }
+    };
+    private final static int MAX_POINTERS = 16;
+    private final InputService mInputService;
+    private final Paint mTextPaint;
+    private final Paint mKeyPaint;
+    private final Paint.FontMetrics mFontMetrics = new Paint.FontMetrics();
+    private final int mColorKeyNormal;
+    private final int mColorKeyPressed;
+    private final int mColorBackground;
+    private final int mKeyHeight;
+    // ポインタIDごとに押されているキー(行 * KEYBOARD_COLS + 列)、押されていなければ-1
+    private final int[] mPointerKey = new int[MAX_POINTERS];
+    private final KeyAccessibilityHelper mAccessibilityHelper;
+    //
+    private int mKeyboard;
+
+    public KeyboardView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        mInputService = (InputService) context;
+
+        mColorKeyNormal = ContextCompat.getColor(context, R.color.gray_3);
+        mColorKeyPressed = ContextCompat.getColor(context, R.color.gray_5);
+        mColorBackground = ContextCompat.getColor(context, R.color.black);
+        mKeyHeight = getResources().getDimensionPixelSize(R.dimen.button_height);
+
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mTextPaint.setColor(ContextCompat.getColor(context, R.color.white));
+        mTextPaint.setTextSize(getResources().getDimension(R.dimen.button_text_size));
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mKeyPaint = new Paint();
+
+        Arrays.fill(mPointerKey, -1);
+        mKeyboard = KEYBOARD_QWERTY_HALF_NORMAL;
+
+        mAccessibilityHelper = new KeyAccessibilityHelper(this);
+        ViewCompat.setAccessibilityDelegate(this, mAccessibilityHelper);
+    }
+
+    // キーボードの切り替えは再描画だけ
+    public void setKeyboard(int keyboard) {
+        if (mKeyboard != keyboard) {
+            mKeyboard = keyboard;
+            invalidate();
+            mAccessibilityHelper.invalidateRoot();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        setMeasuredDimension(width, resolveSize(mKeyHeight * KEYBOARD_ROWS, heightMeasureSpec));
+    }
+
+    // 座標にあるキー、範囲外なら-1
+    private int keyAt(float x, float y) {
+        if (x < 0 || y < 0 || x >= getWidth() || y >= getHeight()) {
+            return -1;
+        }
+        int row = (int) (y * KEYBOARD_ROWS / getHeight());
+        int col = (int) (x * KEYBOARD_COLS / getWidth());
+        return row * KEYBOARD_COLS + col;
+    }
+
+    private String getLabel(int key) {
+        return keyboardLabel[mKeyboard][key / KEYBOARD_COLS][key % KEYBOARD_COLS];
+    }
+
+    private void getKeyBounds(int key, Rect bounds) {
+        int row = key / KEYBOARD_COLS;
+        int col = key % KEYBOARD_COLS;
+        bounds.set(col * getWidth() / KEYBOARD_COLS, row * getHeight() / KEYBOARD_ROWS,
+                (col + 1) * getWidth() / KEYBOARD_COLS, (row + 1) * getHeight() / KEYBOARD_ROWS);
+    }
+
+    private boolean isPressed(int key) {
+        for (int k : mPointerKey) {
+            if (k == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int index = event.getActionIndex();
+        int id = event.getPointerId(index);
+        if (id >= MAX_POINTERS) {
+            return true;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN:
+                mPointerKey[id] = keyAt(event.getX(index), event.getY(index));
+                if (mPointerKey[id] >= 0 && getLabel(mPointerKey[id]).length() != 0) {
+                    performHapticFeedback(HapticFeedbackConstants.KEYBOARD_TAP);
+                }
+                invalidate();
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP: {
+                int key = mPointerKey[id];
+                mPointerKey[id] = -1;
+                // 押したキーの上で離した時だけ入力する
+                if (key >= 0 && key == keyAt(event.getX(index), event.getY(index))) {
+                    onClickKey(key);
+                }
+                invalidate();
+                break;
+            }
+            case MotionEvent.ACTION_CANCEL:
+                Arrays.fill(mPointerKey, -1);
+                invalidate();
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    // 文字キーのクリック
+    private void onClickKey(int key) {
+        String label = getLabel(key);
+        if (label.length() != 0) {
+            playSoundEffect(SoundEffectConstants.CLICK);
+        }
+        for (int i = 0; i < label.length(); i++) {
+            mInputService.processChar(label.charAt(i));
+        }
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        return mAccessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    @Override
+    protected void onFocusChanged(boolean gainFocus, int direction, @Nullable Rect previouslyFocusedRect) {
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+        mAccessibilityHelper.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+    }
+
+    // ユーザ補助向けのキー(仮想のView、IDはキーの番号)
+    // 文字のないキーは見せない
+    private class KeyAccessibilityHelper extends ExploreByTouchHelper {
+        private final Rect mBounds = new Rect();
+
+        KeyAccessibilityHelper(@NonNull View host) {
+            super(host);
+        }
+
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int key = keyAt(x, y);
+            return key >= 0 && getLabel(key).length() != 0 ? key : INVALID_ID;
+        }
+
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            for (int key = 0; key < KEYBOARD_ROWS * KEYBOARD_COLS; key++) {
+                if (getLabel(key).length() != 0) {
+                    virtualViewIds.add(key);
+                }
+            }
+        }
+
+        @Override
+        protected void onPopulateEventForVirtualView(int virtualViewId, @NonNull AccessibilityEvent event) {
+            event.setContentDescription(getLabel(virtualViewId));
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId, @NonNull AccessibilityNodeInfoCompat node) {
+            node.setContentDescription(getLabel(virtualViewId));
+            getKeyBounds(virtualViewId, mBounds);
+            node.setBoundsInParent(mBounds);
+            node.setClickable(true);
+            node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action, @Nullable Bundle arguments) {
+            if (action != AccessibilityNodeInfoCompat.ACTION_CLICK) {
+                return false;
+            }
+            onClickKey(virtualViewId);
+            sendEventForVirtualView(virtualViewId, AccessibilityEvent.TYPE_VIEW_CLICKED);
+            return true;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawColor(mColorBackground);
+        float keyWidth = (float) getWidth() / KEYBOARD_COLS;
+        float keyHeight = (float) getHeight() / KEYBOARD_ROWS;
+        mTextPaint.getFontMetrics(mFontMetrics);
+        float baseline = (keyHeight - mFontMetrics.ascent - mFontMetrics.descent) / 2;
+        for (int row = 0; row < KEYBOARD_ROWS; row++) {
+            float top = row * keyHeight;
+            for (int col = 0; col < KEYBOARD_COLS; col++) {
+                float left = col * keyWidth;
+                mKeyPaint.setColor(isPressed(row * KEYBOARD_COLS + col) ? mColorKeyPressed : mColorKeyNormal);
+                canvas.drawRect(left + 1, top + 1, left + keyWidth - 1, top + keyHeight - 1, mKeyPaint);
+                String label = keyboardLabel[mKeyboard][row][col];
+                if (label.length() != 0) {
+                    canvas.drawText(label, left + keyWidth / 2, top + baseline, mTextPaint);
+                }
+            }
+        }
+    }
+}
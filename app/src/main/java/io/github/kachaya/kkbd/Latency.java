@@ -0,0 +1,78 @@
+package io.github.kachaya.kkbd;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import io.github.kachaya.kkbd.engine.LatencyHistogram;
+
+// キー入力から表示までの各段階の処理時間
+// 設定画面と dumpsys で見られるように、プロセス内で共有する
+public final class Latency {
+    public static final int STAGE_KEY = 0;          // processChar(メインスレッド)
+    public static final int STAGE_SUGGEST_REQUEST = 1;  // updateSuggestion(メインスレッド)
+    public static final int STAGE_LOOKUP = 2;       // 辞書検索と提案候補の作成(変換スレッド)
+    public static final int STAGE_LIVE = 3;         // ライブ変換(変換スレッド)
+    public static final int STAGE_CONVERT = 4;      // 文節変換(変換スレッド)
+    public static final int STAGE_CANDIDATES = 5;   // InputView.setCandidates
+    public static final int STAGE_COMPOSING = 6;    // InputConnection.setComposingText
+    public static final int STAGE_KEY_TO_CANDIDATES = 7;    // キー入力から候補表示まで
+    private static final int STAGE_NUM = 8;
+
+    private static final String[] STAGE_NAMES = {
+            "processChar", "updateSuggestion", "lookup", "liveConvert",
+            "convert", "setCandidates", "setComposingText", "key→candidates"
+    };
+
+    private static final LatencyHistogram[] sHistograms = new LatencyHistogram[STAGE_NUM];
+
+    static {
+        for (int i = 0; i < STAGE_NUM; i++) {
+            sHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private Latency() {
+    }
+
+    // 開始時刻(System.nanoTime())から今までの時間を記録する
+    public static void record(int stage, long startNanos) {
+        sHistograms[stage].recordSince(startNanos);
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+
+    // 段階ごとに 回数, p50, p95, p99, 最大(ミリ秒) を1行ずつ
+    public static String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STAGE_NUM; i++) {
+            LatencyHistogram histogram = sHistograms[i];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(String.format(Locale.US, "%s n=%d p50=%.2f p95=%.2f p99=%.2f max=%.2f",
+                    STAGE_NAMES[i], histogram.getCount(),
+                    histogram.getPercentile(50) / 1000.0, histogram.getPercentile(95) / 1000.0,
+                    histogram.getPercentile(99) / 1000.0, histogram.getMax() / 1000.0));
+        }
+        return sb.toString();
+    }
+
+    public static void dump(PrintWriter pw) {
+        pw.println("Latency (ms):");
+        String summary = getSummary();
+        if (summary.isEmpty()) {
+            pw.println("  (no samples)");
+            return;
+        }
+        for (String line : summary.split("\n")) {
+            pw.println("  " + line);
+        }
+    }
+}
@@ -1,11 +1,28 @@
 package io.github.kachaya.kkbd;
 
+import android.content.Context;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.github.kachaya.kkbd.engine.Dictionary;
+
 public class SettingsActivity extends AppCompatActivity {
 
     @Override
@@ -25,9 +42,138 @@ public class SettingsActivity extends AppCompatActivity {
     }
 
     public static class SettingsFragment extends PreferenceFragmentCompat {
+        private static final String TAG = "SettingsFragment";
+        private static final String EXPORT_FILE_NAME = "SKK-JISYO.kkbd";
+        // ユーザ辞書の取り込み・書き出し、メイン辞書の更新(画面を閉じても最後まで行う)
+        private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+        private interface DictionaryTask {
+            // 結果のメッセージを返す
+            String run(Dictionary dictionary) throws IOException;
+        }
+
+        private final ActivityResultLauncher<String[]> mImportLauncher =
+                registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::importUserDic);
+        private final ActivityResultLauncher<String> mExportLauncher =
+                registerForActivityResult(new ActivityResultContracts.CreateDocument(), this::exportUserDic);
+        private final ActivityResultLauncher<String[]> mUpdateLauncher =
+                registerForActivityResult(new ActivityResultContracts.OpenDocument(), this::updateMainDic);
+
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             setPreferencesFromResource(R.xml.root_preferences, rootKey);
+            Preference importUserDic = findPreference("import_user_dic");
+            if (importUserDic != null) {
+                importUserDic.setOnPreferenceClickListener(preference -> {
+                    mImportLauncher.launch(new String[]{"*/*"});
+                    return true;
+                });
+            }
+            Preference exportUserDic = findPreference("export_user_dic");
+            if (exportUserDic != null) {
+                exportUserDic.setOnPreferenceClickListener(preference -> {
+                    mExportLauncher.launch(EXPORT_FILE_NAME);
+                    return true;
+                });
+            }
+            Preference updateMainDic = findPreference("update_main_dic");
+            if (updateMainDic != null) {
+                updateMainDic.setOnPreferenceClickListener(preference -> {
+                    mUpdateLauncher.launch(new String[]{"*/*"});
+                    return true;
+                });
+            }
+            Preference latency = findPreference("latency");
+            if (latency != null) {
+                latency.setOnPreferenceClickListener(preference -> {
+                    Latency.reset();
+                    updateLatency();
+                    return true;
+                });
+            }
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            updateLatency();
+        }
+
+        // 選ばれたファイル(キャンセルならnull)を取り込む
+        private void importUserDic(Uri uri) {
+            if (uri == null) {
+                return;
+            }
+            Context context = requireContext().getApplicationContext();
+            runDictionaryTask(context, "取り込んでいます", dictionary -> {
+                try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                    if (in == null) {
+                        throw new IOException("cannot open " + uri);
+                    }
+                    return dictionary.importSkk(in) + "件の見出しを取り込みました";
+                }
+            });
+        }
+
+        // 作成されたファイル(キャンセルならnull)に書き出す
+        private void exportUserDic(Uri uri) {
+            if (uri == null) {
+                return;
+            }
+            Context context = requireContext().getApplicationContext();
+            runDictionaryTask(context, "書き出しています", dictionary -> {
+                try (OutputStream out = context.getContentResolver().openOutputStream(uri)) {
+                    if (out == null) {
+                        throw new IOException("cannot open " + uri);
+                    }
+                    return dictionary.exportSkk(out) + "件の見出しを書き出しました";
+                }
+            });
+        }
+
+        // 選ばれた差分ファイル(キャンセルならnull)をメイン辞書に適用する
+        private void updateMainDic(Uri uri) {
+            if (uri == null) {
+                return;
+            }
+            Context context = requireContext().getApplicationContext();
+            runDictionaryTask(context, "メイン辞書を更新しています", dictionary -> {
+                try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                    if (in == null) {
+                        throw new IOException("cannot open " + uri);
+                    }
+                    return "メイン辞書を版" + dictionary.updateMainDic(in) + "に更新しました";
+                }
+            });
+        }
+
+        // キーボードと同じ辞書を使ってバックグラウンドで実行し、結果をトーストで表示する
+        private static void runDictionaryTask(Context context, String start, DictionaryTask task) {
+            Toast.makeText(context, start, Toast.LENGTH_SHORT).show();
+            Handler handler = new Handler(Looper.getMainLooper());
+            sExecutor.execute(() -> {
+                String message;
+                Dictionary dictionary = SharedDictionary.acquire(context);
+                try {
+                    message = task.run(dictionary);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "runDictionaryTask", e);
+                    message = "失敗しました: " + e.getMessage();
+                } finally {
+                    SharedDictionary.release();
+                }
+                String result = message;
+                handler.post(() -> Toast.makeText(context, result, Toast.LENGTH_LONG).show());
+            });
+        }
+
+        // キーボードと同じプロセスで記録された処理時間を表示する
+        private void updateLatency() {
+            Preference latency = findPreference("latency");
+            if (latency != null) {
+                String summary = Latency.getSummary();
+                latency.setSummary(summary.isEmpty() ? "記録なし" : summary);
+            }
         }
     }
 }
\ No newline at end of file
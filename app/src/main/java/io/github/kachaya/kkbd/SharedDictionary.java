@@ -0,0 +1,33 @@
+package io.github.kachaya.kkbd;
+
+import android.content.Context;
+
+import io.github.kachaya.kkbd.engine.Dictionary;
+
+// プロセスで共有する辞書
+// キーボードと設定画面が同じユーザ辞書のファイルを別々に開かないようにする
+// 一度開いたらプロセスが終わるまで閉じない(開き直すときに前の辞書の終了をメインスレッドで待たない)
+// 学習内容はジャーナルに残るので、閉じずに終了しても失われない
+public final class SharedDictionary {
+    private static Dictionary sDictionary;
+    private static int sRefCount;
+
+    private SharedDictionary() {
+    }
+
+    // 使い終わったらrelease()を呼ぶこと
+    public static synchronized Dictionary acquire(Context context) {
+        if (sDictionary == null) {
+            sDictionary = new Dictionary(new AndroidStorage(context.getApplicationContext()));
+        }
+        sRefCount++;
+        return sDictionary;
+    }
+
+    // 誰も使わなくなったら学習内容をコミットする(バックグラウンドで)
+    public static synchronized void release() {
+        if (--sRefCount == 0) {
+            sDictionary.commit();
+        }
+    }
+}
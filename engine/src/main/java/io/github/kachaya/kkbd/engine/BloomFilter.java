@@ -0,0 +1,115 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+// ブルームフィルタ
+// 辞書にないキーを辞書を読まずに判定するためのもの
+// 1件あたり10ビット、ハッシュ7個で、ないものをあると誤る確率は約1%
+//
+// 作り終えてから他のスレッドに渡すこと(add()は同期しない)
+// ファイルに保存したものはマップしたまま使える
+//   int     ハッシュ数
+//   int     ビット列の長さ N (long単位)
+//   long[N] ビット列
+public class BloomFilter {
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_NUM = 7;
+
+    private final LongBuffer mBits;
+    private final int mBitNum;
+
+    // expectedは追加する件数
+    public BloomFilter(int expected) {
+        long bits = Math.max(64, (long) expected * BITS_PER_ENTRY);
+        mBits = LongBuffer.wrap(new long[(int) Math.min((bits + 63) / 64, Integer.MAX_VALUE / 64)]);
+        mBitNum = mBits.capacity() * 64;
+    }
+
+    private BloomFilter(LongBuffer bits) {
+        mBits = bits;
+        mBitNum = bits.capacity() * 64;
+    }
+
+    // bufの今の位置から読む(ビット列はコピーしない)、bufの位置はフィルタの後ろに進む
+    @NonNull
+    public static BloomFilter read(@NonNull ByteBuffer buf) throws IOException {
+        try {
+            int hashNum = buf.getInt();
+            if (hashNum != HASH_NUM) {
+                throw new IOException("unsupported hash number: " + hashNum);
+            }
+            int longs = buf.getInt();
+            if (longs <= 0 || longs > buf.remaining() / 8) {
+                throw new IOException("broken filter");
+            }
+            ByteBuffer bits = buf.slice();
+            bits.limit(longs * 8);
+            buf.position(buf.position() + longs * 8);
+            return new BloomFilter(bits.asLongBuffer());
+        } catch (RuntimeException e) {
+            throw new IOException("broken filter", e);
+        }
+    }
+
+    public void write(@NonNull DataOutputStream dos) throws IOException {
+        dos.writeInt(HASH_NUM);
+        dos.writeInt(mBits.capacity());
+        for (int i = 0; i < mBits.capacity(); i++) {
+            dos.writeLong(mBits.get(i));
+        }
+    }
+
+    public void add(@NonNull CharSequence s) {
+        add(s, s.length());
+    }
+
+    // sの先頭len文字を追加する
+    public void add(@NonNull CharSequence s, int len) {
+        long h = hash(s, len);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASH_NUM; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitNum;
+            mBits.put(index >>> 6, mBits.get(index >>> 6) | 1L << index);
+        }
+    }
+
+    // falseならない、trueならあるかもしれない
+    public boolean mightContain(@NonNull CharSequence s) {
+        long h = hash(s, s.length());
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASH_NUM; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitNum;
+            if ((mBits.get(index >>> 6) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 使用メモリ(バイト)
+    public int getSize() {
+        return mBits.capacity() * 8;
+    }
+
+    // FNV-1aの後にMurmurHash3の最終処理で混ぜる
+    private static long hash(CharSequence s, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < len; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.kachaya.kkbd.engine;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+// 候補一覧
+// 表示用文字列の重複はハッシュで判定し、先頭への追加は配列の前側の空きを使う
+public class CandidateList {
+
+    // 候補
+    public static class Candidate {
+        public final String key;    // 辞書検索キー
+        public final String value;  // 辞書登録語句
+        public final String text;   // 表示用
+        float score;                // 並べ替え用の学習スコア
+
+        Candidate(String key, String value, String text) {
+            this.key = key;
+            this.value = value;
+            this.text = text;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final HashSet<String> mTexts = new HashSet<>();
+    private Candidate[] mItems = new Candidate[INITIAL_CAPACITY];
+    private int mHead = INITIAL_CAPACITY / 4;   // 先頭に追加する分の空き
+    private int mSize;
+
+    private final List<String> mTextList = new AbstractList<String>() {
+        @Override
+        public String get(int index) {
+            return getText(index);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    };
+
+    public void add(String key, String value, String text) {
+        if (!mTexts.add(text)) {
+            return;
+        }
+        if (mHead + mSize == mItems.length) {
+            grow();
+        }
+        mItems[mHead + mSize] = new Candidate(key, value, text);
+        mSize++;
+    }
+
+    // 先頭と末尾以外への挿入は行わないので、indexは0か末尾だけを受け付ける
+    public void add(int index, String key, String value, String text) {
+        if (index == mSize) {
+            add(key, value, text);
+            return;
+        }
+        if (index != 0) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        if (!mTexts.add(text)) {
+            return;
+        }
+        if (mHead == 0) {
+            grow();
+        }
+        mItems[--mHead] = new Candidate(key, value, text);
+        mSize++;
+    }
+
+    // 前後に空きを取り直して拡張する
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, mSize * 2);
+        int head = capacity / 4;
+        Candidate[] items = new Candidate[capacity];
+        System.arraycopy(mItems, mHead, items, head, mSize);
+        mItems = items;
+        mHead = head;
+    }
+
+    // from以降をスコアの高い順に並べ替える(同点は元の順)
+    public void sortByScore(int from) {
+        Arrays.sort(mItems, mHead + from, mHead + mSize, (a, b) -> Float.compare(b.score, a.score));
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public Candidate get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+        return mItems[mHead + index];
+    }
+
+    public String getKey(int index) {
+        return get(index).key;
+    }
+
+    public String getValue(int index) {
+        return get(index).value;
+    }
+
+    public String getText(int index) {
+        return get(index).text;
+    }
+
+    // 表示用文字列の一覧(コピーしない)
+    public List<String> getTexts() {
+        return mTextList;
+    }
+}
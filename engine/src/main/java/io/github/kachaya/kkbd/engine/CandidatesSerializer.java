@@ -0,0 +1,68 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import org.mapdb.Serializer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+// ユーザ辞書の候補一覧をタブ区切り文字列にせずそのまま保存する
+//   short 候補数, { short 候補長, short[] 候補 } * 候補数
+// (MapDB 1.0.9のDataInput2.readChar()は正しく読めないのでshortで読み書きする)
+// 候補数と候補長はMAX_LENGTHまで、超えるものは切り詰めずに例外にする
+public class CandidatesSerializer implements Serializer<String[]>, Serializable {
+    private static final long serialVersionUID = 1L;
+    public static final int MAX_LENGTH = 0xFFFF;
+
+    // 保存できる候補一覧か
+    // BTreeMapの書き込み中に例外になるとロックが残るので、putの前に調べること
+    public static boolean fits(@NonNull String[] values) {
+        if (values.length > MAX_LENGTH) {
+            return false;
+        }
+        for (String value : values) {
+            if (value.length() > MAX_LENGTH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void serialize(DataOutput out, String[] values) throws IOException {
+        if (!fits(values)) {
+            throw new IllegalArgumentException("too long: " + values.length + " values");
+        }
+        out.writeShort(values.length);
+        for (String value : values) {
+            int len = value.length();
+            out.writeShort(len);
+            for (int i = 0; i < len; i++) {
+                out.writeShort(value.charAt(i));
+            }
+        }
+    }
+
+    @Override
+    public String[] deserialize(DataInput in, int available) throws IOException {
+        int num = in.readUnsignedShort();
+        String[] values = new String[num];
+        for (int i = 0; i < num; i++) {
+            int len = in.readUnsignedShort();
+            char[] cs = new char[len];
+            for (int j = 0; j < len; j++) {
+                cs[j] = (char) in.readUnsignedShort();
+            }
+            values[i] = new String(cs);
+        }
+        return values;
+    }
+
+    @Override
+    public int fixedSize() {
+        return -1;
+    }
+}
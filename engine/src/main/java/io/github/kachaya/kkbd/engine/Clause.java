@@ -0,0 +1,18 @@
+package io.github.kachaya.kkbd.engine;
+
+// 変換中の文節
+public class Clause {
+    public final String reading;            // 読み
+    public final CandidateList candidates;  // 候補
+    public int index;                       // 選択中の候補
+
+    public Clause(String reading, CandidateList candidates, int index) {
+        this.reading = reading;
+        this.candidates = candidates;
+        this.index = index;
+    }
+
+    public String getText() {
+        return candidates.getText(index);
+    }
+}
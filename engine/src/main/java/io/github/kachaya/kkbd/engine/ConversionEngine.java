@@ -0,0 +1,281 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+
+// かな漢字変換
+// 読みと入力モードから候補を作る。スレッドは扱わないので、呼び出し側で1つのスレッドから使う
+public class ConversionEngine {
+    public static final int MODE_HIRAGANA = 0;
+    public static final int MODE_KATAKANA = 1;     // 候補を全角カタカナにする
+
+    private static final int PREDICT_MIN_LENGTH = 2;    // メイン辞書から予測する読みの長さ
+    private static final int PREDICT_KEYS = 10;         // メイン辞書から予測するキーの数
+    private static final int PREDICT_VALUES = 2;        // 予測したキーごとの候補数
+    private static final BooleanSupplier NOT_CANCELLED = () -> false;
+
+    private final Dictionary mDictionary;
+    private final Lattice mLattice;
+
+    public ConversionEngine(@NonNull Dictionary dictionary) {
+        mDictionary = dictionary;
+        mLattice = new Lattice(dictionary);
+    }
+
+    // 提案(読みで始まる語)
+    public CandidateList suggest(@NonNull CharSequence reading, int mode) {
+        return suggest(reading, mode, NOT_CANCELLED);
+    }
+
+    // 提案、取り消されたらnull
+    public CandidateList suggest(@NonNull CharSequence reading, int mode, @NonNull BooleanSupplier cancelled) {
+        String hiragana = Converter.toWideHiragana(reading);
+        CandidateList candidates = new CandidateList();
+        ArrayList<String> keys;
+
+        String katakana = Converter.toWideKatakana(hiragana);
+        String text;
+
+        candidates.add(hiragana, hiragana, hiragana);
+        candidates.add(hiragana, katakana, katakana);
+        int first = candidates.size();
+
+        // ユーザ辞書から
+        keys = mDictionary.getUserKeys(hiragana);
+        keys.sort(Comparator.comparingInt(String::length).reversed().thenComparing(Comparator.naturalOrder()));
+
+        for (int i = 0; i < keys.size(); i++) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            String key = keys.get(i);
+            char ch = key.charAt(key.length() - 1);
+            if (ch >= 'a' && ch <= 'z') {
+                continue;   // 送りなしエントリだけが対象
+            }
+            String[] values = mDictionary.searchUserDic(key);
+            if (values != null) {
+                for (String value : values) {
+                    text = value;
+                    if (mode == MODE_KATAKANA) {
+                        text = Converter.toWideKatakana(text);
+                    }
+                    candidates.add(key, value, text);
+                }
+            }
+        }
+
+        // メイン辞書から
+        if (hiragana.length() >= PREDICT_MIN_LENGTH) {
+            keys = mDictionary.getMainKeys(hiragana, PREDICT_KEYS);
+            for (String key : keys) {
+                if (cancelled.getAsBoolean()) {
+                    return null;
+                }
+                String[] values = mDictionary.searchMainDic(key);
+                if (values != null) {
+                    for (int i = 0; i < values.length && i < PREDICT_VALUES; i++) {
+                        text = values[i];
+                        if (mode == MODE_KATAKANA) {
+                            text = Converter.toWideKatakana(text);
+                        }
+                        candidates.add(key, values[i], text);
+                    }
+                }
+            }
+        }
+        sortByScore(candidates, first);
+        return candidates;
+    }
+
+    // 学習スコアの高い順に並べ替える
+    private void sortByScore(CandidateList candidates, int from) {
+        boolean scored = false;
+        for (int i = from; i < candidates.size(); i++) {
+            CandidateList.Candidate c = candidates.get(i);
+            c.score = mDictionary.getScore(c.key, c.value);
+            scored |= c.score > 0;
+        }
+        if (scored) {
+            candidates.sortByScore(from);
+        }
+    }
+
+    // ライブ変換(最良の変換結果)
+    // ラティスは前回の読みとの差分だけを計算するので、1文字の追加・削除なら処理量はほぼ一定
+    public String liveConvert(@NonNull CharSequence reading, int mode) {
+        String hiragana = Converter.toWideHiragana(reading);
+        StringBuilder sb = new StringBuilder(hiragana.length());
+        for (Lattice.Segment segment : mLattice.segment(hiragana)) {
+            if (mode == MODE_KATAKANA) {
+                Converter.toWideKatakana(segment.text, sb);
+            } else {
+                sb.append(segment.text);
+            }
+        }
+        return sb.toString();
+    }
+
+    // 文節ごとに変換する、firstLengthが0でなければ最初の文節をその長さにする
+    public ArrayList<Clause> convert(@NonNull CharSequence reading, int mode, int firstLength) {
+        return convert(reading, mode, firstLength, NOT_CANCELLED);
+    }
+
+    // 文節ごとに変換する、取り消されたらnull
+    public ArrayList<Clause> convert(@NonNull CharSequence reading, int mode, int firstLength, @NonNull BooleanSupplier cancelled) {
+        String key = Converter.toWideHiragana(reading);
+        ArrayList<Lattice.Segment> segments = new ArrayList<>();
+        if (firstLength > 0) {
+            segments.add(new Lattice.Segment(key.substring(0, firstLength), null));
+            key = key.substring(firstLength);
+        }
+        if (!key.isEmpty()) {
+            segments.addAll(mLattice.segment(key));
+        }
+
+        ArrayList<Clause> clauses = new ArrayList<>();
+        for (Lattice.Segment segment : segments) {
+            CandidateList candidates = convertClause(segment.reading, mode, cancelled);
+            if (candidates == null) {
+                return null;
+            }
+            String text = segment.text;
+            if (text != null && mode == MODE_KATAKANA) {
+                text = Converter.toWideKatakana(text);
+            }
+            clauses.add(new Clause(segment.reading, candidates, indexOf(candidates, segment.reading, text)));
+        }
+        return clauses;
+    }
+
+    // 最初に選択する候補、textがなければ先頭のかな以外
+    private static int indexOf(CandidateList candidates, String reading, String text) {
+        String katakana = Converter.toWideKatakana(reading);
+        int first = -1;
+        for (int i = 0; i < candidates.size(); i++) {
+            String t = candidates.getText(i);
+            if (t.equals(text)) {
+                return i;
+            }
+            if (first < 0 && !t.equals(reading) && !t.equals(katakana)) {
+                first = i;
+            }
+        }
+        return Math.max(first, 0);
+    }
+
+    // 1文節の変換
+    private CandidateList convertClause(String key, int mode, BooleanSupplier cancelled) {
+        CandidateList candidates = new CandidateList();
+        int len;
+        String firstKey;
+        String secondKey;
+        char ascii;
+        int okuriLength;
+        String[] values;
+        String text;
+
+        len = key.length();
+
+        // 入力したものでユーザ辞書検索
+        values = mDictionary.searchUserDic(key);
+        if (values != null) {
+            for (String value : values) {
+                text = value;
+                if (mode == MODE_KATAKANA) {
+                    text = Converter.toWideKatakana(text);
+                }
+                candidates.add(key, value, text);
+            }
+        }
+        // 後ろから分割してユーザ辞書検索
+        for (int pos = len - 1; pos > 0; pos--) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            firstKey = key.substring(0, pos);
+            secondKey = key.substring(pos, len);
+            okuriLength = Converter.getOkuriLength(key, pos);
+            if (okuriLength > 0) {
+                ascii = Converter.getOkuriAscii(key, pos);
+                values = mDictionary.searchUserDic(firstKey + ascii);
+                if (values != null) {
+                    for (String value : values) {
+                        text = value + secondKey;
+                        if (mode == MODE_KATAKANA) {
+                            text = Converter.toWideKatakana(text);
+                        }
+                        candidates.add(key, value + secondKey, text);
+                    }
+                }
+            }
+            values = mDictionary.searchUserDic(firstKey);
+            if (values != null) {
+                for (String value : values) {
+                    text = value + secondKey;
+                    if (mode == MODE_KATAKANA) {
+                        text = Converter.toWideKatakana(text);
+                    }
+                    candidates.add(firstKey, value, text);
+                }
+            }
+        }
+
+        // 入力したものそのままでメイン辞書検索
+        values = mDictionary.searchMainDic(key);
+        if (values != null) {
+            for (String value : values) {
+                text = value;
+                if (mode == MODE_KATAKANA) {
+                    text = Converter.toWideKatakana(text);
+                }
+                candidates.add(key, value, text);
+            }
+        }
+        // 後ろから分割してメイン辞書検索
+        for (int pos = len - 1; pos > 0; pos--) {
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            firstKey = key.substring(0, pos);
+            secondKey = key.substring(pos, len);
+            okuriLength = Converter.getOkuriLength(key, pos);
+            if (okuriLength > 0) {
+                ascii = Converter.getOkuriAscii(key, pos);
+                // 送りあり
+                values = mDictionary.searchMainDic(firstKey + ascii);
+                if (values != null) {
+                    String okuri = key.substring(pos, pos + okuriLength);
+                    for (String value : values) {
+                        text = value + secondKey;
+                        if (mode == MODE_KATAKANA) {
+                            text = Converter.toWideKatakana(text);
+                        }
+                        candidates.add(firstKey + okuri, value + okuri, text);
+                    }
+                }
+            }
+            // 送りなし
+            values = mDictionary.searchMainDic(firstKey);
+            if (values != null) {
+                for (String value : values) {
+                    text = value + secondKey;
+                    if (mode == MODE_KATAKANA) {
+                        text = Converter.toWideKatakana(text);
+                    }
+                    candidates.add(firstKey, value, text);
+                }
+            }
+        }
+
+        sortByScore(candidates, 0);
+
+        text = Converter.toWideKatakana(key);
+        candidates.add(0, key, text, text);
+        candidates.add(0, key, key, key);
+        return candidates;
+    }
+}
@@ -0,0 +1,151 @@
+package io.github.kachaya.kkbd.engine;
+
+public class Converter {
+    // ひらがな・カタカナのブロック(U+3040〜U+30FF)を添字にしたテーブル、該当なしは0
+    private static final char KANA_FIRST = '\u3040';
+    private static final char KANA_LAST = '\u30FF';
+
+    // 送り仮名をSKK辞書検索用のアスキー１文字にするテーブル
+    private static final char[] okuriTable = new char[KANA_LAST - KANA_FIRST + 1];
+    // 「っ」に続けて送り仮名にできるもの(ア行・ナ行以外)
+    private static final boolean[] sokuonTable = new boolean[KANA_LAST - KANA_FIRST + 1];
+    // 全角濁点'゛'結合用
+    private static final char[] dakutenTable = new char[KANA_LAST - KANA_FIRST + 1];
+    // 全角半濁点'゜'結合用
+    private static final char[] handakutenTable = new char[KANA_LAST - KANA_FIRST + 1];
+
+    static {
+        putOkuri("あいうえお", 'a', 'i', 'u', 'e', 'o');
+        putOkuri("かきくけこ", 'k');
+        putOkuri("さしすせそ", 's');
+        putOkuri("たちつてと", 't');
+        putOkuri("なにぬねの", 'n');
+        putOkuri("はひふへほ", 'h');
+        putOkuri("まみむめも", 'm');
+        putOkuri("やゆよ", 'y');
+        putOkuri("らりるれろ", 'r');
+        putOkuri("わ", 'w');
+        putOkuri("がぎぐげご", 'g');
+        putOkuri("ざじずぜぞ", 'z');
+        putOkuri("だぢづでど", 'd');
+        putOkuri("ばびぶべぼ", 'b');
+        putOkuri("ぱぴぷぺぽ", 'p');
+
+        putPairs(dakutenTable,
+                "うかきくけこさしすせそたちつてとはひふへほウカキクケコサシスセソタチツテトハヒフヘホ",
+                "ゔがぎぐげござじずぜぞだぢづでどばびぶべぼヴガギグゲゴザジズゼゾダヂヅデドバビブベボ");
+        putPairs(handakutenTable, "はひふへほハヒフヘホ", "ぱぴぷぺぽパピプペポ");
+    }
+
+    private static void putOkuri(String kana, char... ascii) {
+        for (int i = 0; i < kana.length(); i++) {
+            char a = ascii[Math.min(i, ascii.length - 1)];
+            okuriTable[kana.charAt(i) - KANA_FIRST] = a;
+            sokuonTable[kana.charAt(i) - KANA_FIRST] = "aiueon".indexOf(a) < 0;
+        }
+    }
+
+    private static void putPairs(char[] table, String from, String to) {
+        for (int i = 0; i < from.length(); i++) {
+            table[from.charAt(i) - KANA_FIRST] = to.charAt(i);
+        }
+    }
+
+    private static char lookup(char[] table, char ch) {
+        if (ch < KANA_FIRST || ch > KANA_LAST) {
+            return 0;
+        }
+        return table[ch - KANA_FIRST];
+    }
+
+    // offsetから始まる送り仮名(1文字、または「っ」と1文字)の長さ、送り仮名にならなければ0
+    public static int getOkuriLength(CharSequence cs, int offset) {
+        char ch = cs.charAt(offset);
+        if (ch == 'っ') {
+            if (offset + 1 < cs.length()) {
+                char next = cs.charAt(offset + 1);
+                if (next >= KANA_FIRST && next <= KANA_LAST && sokuonTable[next - KANA_FIRST]) {
+                    return 2;
+                }
+            }
+            return 0;
+        }
+        return lookup(okuriTable, ch) != 0 ? 1 : 0;
+    }
+
+    // offsetから始まる送り仮名のアスキー文字、送り仮名にならなければ0
+    public static char getOkuriAscii(CharSequence cs, int offset) {
+        int length = getOkuriLength(cs, offset);
+        if (length == 0) {
+            return 0;
+        }
+        return lookup(okuriTable, cs.charAt(offset + length - 1));
+    }
+
+    // 濁点、結合できなければ0
+    public static char combineDakuten(char ch) {
+        return lookup(dakutenTable, ch);
+    }
+
+    // 半濁点、結合できなければ0
+    public static char combineHandakuten(char ch) {
+        return lookup(handakutenTable, ch);
+    }
+
+    // 全角ひらがな変換
+    public static char toWideHiragana(char ch) {
+        if (ch >= 'ァ' && ch <= 'ヶ') {
+            return (char) (ch - 'ァ' + 'ぁ');
+        }
+        return ch;
+    }
+
+    // 全角ひらがな変換、変換するものがなければ(Stringなら)そのまま返す
+    public static String toWideHiragana(CharSequence cs) {
+        int i = 0;
+        while (i < cs.length() && toWideHiragana(cs.charAt(i)) == cs.charAt(i)) {
+            i++;
+        }
+        if (i == cs.length()) {
+            return cs.toString();
+        }
+        StringBuilder sb = new StringBuilder(cs.length());
+        sb.append(cs, 0, i);
+        for (; i < cs.length(); i++) {
+            sb.append(toWideHiragana(cs.charAt(i)));
+        }
+        return sb.toString();
+    }
+
+    // 全角カタカナ変換
+    public static char toWideKatakana(char ch) {
+        if (ch >= 'ぁ' && ch <= 'ゖ') {
+            return (char) (ch - 'ぁ' + 'ァ');
+        }
+        return ch;
+    }
+
+    // 全角カタカナ変換、変換するものがなければ(Stringなら)そのまま返す
+    public static String toWideKatakana(CharSequence cs) {
+        int i = 0;
+        while (i < cs.length() && toWideKatakana(cs.charAt(i)) == cs.charAt(i)) {
+            i++;
+        }
+        if (i == cs.length()) {
+            return cs.toString();
+        }
+        StringBuilder sb = new StringBuilder(cs.length());
+        sb.append(cs, 0, i);
+        for (; i < cs.length(); i++) {
+            sb.append(toWideKatakana(cs.charAt(i)));
+        }
+        return sb.toString();
+    }
+
+    // 全角カタカナ変換、結果はsbに追加する
+    public static void toWideKatakana(CharSequence cs, StringBuilder sb) {
+        for (int i = 0; i < cs.length(); i++) {
+            sb.append(toWideKatakana(cs.charAt(i)));
+        }
+    }
+}
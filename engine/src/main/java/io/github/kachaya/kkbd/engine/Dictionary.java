@@ -0,0 +1,923 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Fun;
+import org.mapdb.HTreeMap;
+import org.mapdb.Pump;
+import org.mapdb.Serializer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 辞書(読み込み専用の辞書の層とユーザ辞書)
+// 読み込み専用の辞書はメイン辞書、filesディレクトリのdic/*.dic(ファイル名順)の順に重ね、
+// 検索結果は重複を除いてこの順に並べる
+// ファイルの置き場所と同梱のメイン辞書はStorageから得るので、Androidに依存しない
+public class Dictionary {
+    private static final String HASH_MAP_NAME = "dic";             // 旧形式(HTreeMap、タブ区切り)
+    private static final String STRING_MAP_NAME = "user_dic";      // 旧形式(BTreeMap、タブ区切り)
+    private static final String MAP_NAME = "user_dic_list";
+    private static final String USER_DIC_NAME = "user_dic.db";
+    private static final String IMPORT_NAME = "user_dic.db.import";        // 取り込み中のユーザ辞書
+    private static final String IMPORT_DONE_NAME = "user_dic.db.import.done";  // 取り込みの書き込みが終わった印
+    private static final String MAIN_DIC_NAME = "main_dic.dic";
+    private static final String UPDATED_DIC_NAME = "main_dic_updated.dic";  // 差分を適用したメイン辞書
+    private static final String DELTA_NAME = "main_dic.delta";              // 適用待ちの差分
+    private static final String LAYER_DIR_NAME = "dic";                     // 追加の辞書(MainDic形式)
+    private static final String FILTER_SUFFIX = ".filter";                 // 辞書の隣に置くキーのフィルタ
+    private static final int CACHE_SIZE = 1024;
+    private static final int BLOCK_CACHE_SIZE = 256;    // 展開したメイン辞書のブロックを残す数(1ブロック約2KB)
+    private static final int LAYER_BLOCK_CACHE_SIZE = 32;   // 追加の辞書のブロックを残す数
+    private static final long COMMIT_DELAY_MS = 5000;   // 学習内容をまとめてコミットする間隔
+    // 予測で調べる辞書ごとのキー数の上限
+    // 読みで始まるキーがこれより多いと、キー順で先頭のこれだけの中から選ぶ(MainDic.predict)
+    private static final int PREDICT_MAX_SCAN = 4096;
+    private static final long PREDICT_BUDGET_NS = 3 * 1000 * 1000;  // 予測にかける時間の上限
+    private static final int IMPORT_SORT_BATCH = 10000;  // 取り込みの外部ソートでメモリに置く見出し数
+    private static final PendingOp[] NO_PENDING = new PendingOp[0];
+    private final Storage mStorage;
+
+    private volatile MainDic mMainDic;
+    private volatile DictionaryLayer[] mLayers = new DictionaryLayer[0];   // 置き換えるときは配列ごと
+    private volatile Thread mMainDicThread;     // フィルタの作成と差分の適用(ファイルを書く)
+    private volatile DB mUserDicDB;
+    private volatile BTreeMap<String, String[]> mUserDicMap;   // 取り込みで置き換わる
+    private final LookupCache mMainDicCache = new LookupCache(CACHE_SIZE);
+    private final LookupCache mUserDicCache = new LookupCache(CACHE_SIZE);
+    private final UserDicJournal mJournal;
+    private final RankingStore mRanking = new RankingStore();
+    private final File mRankingFile;
+    private final ScheduledThreadPoolExecutor mWriter = new ScheduledThreadPoolExecutor(1);
+    private final ArrayList<DB> mRetiredDBs = new ArrayList<>();   // 取り込みで置き換えたユーザ辞書(mWriterでのみ触る)
+    private volatile boolean mClosed;
+    private final AtomicBoolean mCommitScheduled = new AtomicBoolean();
+    private final AtomicBoolean mApplyScheduled = new AtomicBoolean();
+    // ユーザ辞書にまだ書いていない学習・削除(記録順、mWriterが書き込んで取り除く)
+    // 書き込みはすぐに予約するので、ふつうは数件しかない。検索ではユーザ辞書の結果にこれを重ねる
+    private final ArrayList<PendingOp> mPending = new ArrayList<>();
+    private final AtomicInteger mVersion = new AtomicInteger();    // 内容が変わるたびに増える
+
+    public Dictionary(@NonNull Storage storage) {
+        mStorage = storage;
+        initMainDic();
+        try {
+            finishImport();
+        } catch (IOException e) {
+            Log.e("Dictionary", "IOException", e);
+        }
+        initUserDic(mStorage.getFile(USER_DIC_NAME));
+        mRankingFile = mStorage.getFile("ranking.dat");
+        try {
+            mRanking.load(mRankingFile);
+        } catch (IOException e) {
+            Log.e("Dictionary", "IOException", e);
+        }
+        mJournal = new UserDicJournal(mStorage.getFile("user_dic.journal"));
+        replayJournal();
+    }
+
+    private void initUserDic(File f) {
+        mUserDicDB = DBMaker.newFileDB(f).closeOnJvmShutdown().make();
+        mUserDicMap = mUserDicDB.createTreeMap(MAP_NAME)
+                .keySerializer(BTreeKeySerializer.STRING)
+                .valueSerializer(new CandidatesSerializer())
+                .makeOrGet();
+        // 旧形式のユーザ辞書を移行する
+        if (mUserDicDB.exists(HASH_MAP_NAME)) {
+            HTreeMap<String, String> oldMap = mUserDicDB.getHashMap(HASH_MAP_NAME);
+            migrateUserDic(oldMap);
+            mUserDicDB.delete(HASH_MAP_NAME);
+            mUserDicDB.commit();
+        }
+        if (mUserDicDB.exists(STRING_MAP_NAME)) {
+            BTreeMap<String, String> oldMap = mUserDicDB.getTreeMap(STRING_MAP_NAME);
+            migrateUserDic(oldMap);
+            mUserDicDB.delete(STRING_MAP_NAME);
+            mUserDicDB.commit();
+        }
+    }
+
+    // 前回コミットされなかった学習内容を反映する
+    private void replayJournal() {
+        try {
+            mJournal.replay((op, key, value) -> {
+                if (op == UserDicJournal.OP_ADD) {
+                    mRanking.learn(key, value);
+                    putUserDic(key, value);
+                } else if (op == UserDicJournal.OP_DELETE) {
+                    mRanking.forget(key, value);
+                    removeUserDic(key, value);
+                }
+            });
+            mUserDicDB.commit();
+            mRanking.save(mRankingFile);
+            mJournal.clear();
+        } catch (IOException e) {
+            Log.e("replayJournal", "IOException", e);
+        }
+    }
+
+    private void migrateUserDic(Map<String, String> oldMap) {
+        for (Map.Entry<String, String> e : oldMap.entrySet()) {
+            mUserDicMap.put(e.getKey(), e.getValue().split("\t"));
+        }
+    }
+
+    // メイン辞書は同梱のファイルをコピーせずにマップする
+    // 差分で更新した辞書が同梱のものより新しければそちらを使う
+    private void initMainDic() {
+        DictionaryLayer mainLayer = null;
+        try {
+            MainDic mainDic = new MainDic(mStorage.mapAsset(MAIN_DIC_NAME), BLOCK_CACHE_SIZE);
+            mainLayer = new DictionaryLayer(MAIN_DIC_NAME, mainDic, null);
+            // 同梱のフィルタ
+            try {
+                KeyFilter filter = KeyFilter.read(mStorage.mapAsset(MAIN_DIC_NAME + FILTER_SUFFIX));
+                if (filter.matches(mainDic)) {
+                    mainLayer.setFilter(filter);
+                }
+            } catch (IOException e) {
+                Log.e("initMainDic", "IOException", e);    // 起動後に作る
+            }
+        } catch (IOException e) {
+            Log.e("initMainDic", "IOException", e);    // メイン辞書なし(かなのみ)で動作する
+        }
+        File updated = mStorage.getFile(UPDATED_DIC_NAME);
+        if (updated.exists()) {
+            try {
+                MainDic updatedDic = new MainDic(updated);
+                if (mainLayer == null || updatedDic.getRevision() > mainLayer.getDic().getRevision()) {
+                    mainLayer = openLayer(MAIN_DIC_NAME, updatedDic, updated);
+                } else {
+                    // アプリの更新で同梱の辞書の方が新しくなった
+                    updated.delete();
+                    new File(updated.getPath() + FILTER_SUFFIX).delete();
+                }
+            } catch (IOException e) {
+                Log.e("initMainDic", "IOException", e);
+                updated.delete();
+            }
+        }
+        ArrayList<DictionaryLayer> layers = new ArrayList<>();
+        if (mainLayer != null) {
+            layers.add(mainLayer);
+        }
+        File[] files = mStorage.getFile(LAYER_DIR_NAME).listFiles((dir, name) -> name.endsWith(".dic"));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                try {
+                    layers.add(openLayer(file.getName(), new MainDic(file, LAYER_BLOCK_CACHE_SIZE), file));
+                } catch (IOException e) {
+                    Log.e("initMainDic", "IOException", e);
+                }
+            }
+        }
+        mMainDic = mainLayer != null ? mainLayer.getDic() : null;
+        mLayers = layers.toArray(new DictionaryLayer[0]);
+        // 以前の版が展開したメイン辞書と書きかけの辞書は不要
+        for (String name : new String[]{"main_dic.dic", "main_dic.dic.tmp", "main_dic.db", "main_dic.db.p",
+                UPDATED_DIC_NAME + ".tmp", UPDATED_DIC_NAME + FILTER_SUFFIX + ".tmp", DELTA_NAME + ".tmp"}) {
+            mStorage.getFile(name).delete();
+        }
+        // フィルタのない層のフィルタを作ってから差分を適用する(適用した辞書のフィルタはその後で作る)
+        DictionaryLayer[] initial = mLayers;
+        Thread thread = new Thread(() -> {
+            for (DictionaryLayer layer : initial) {
+                if (mClosed) {
+                    return;     // 作らなかったフィルタは次に開いたときに作る
+                }
+                buildFilter(layer);
+            }
+            applyMainDicDelta();
+        }, "DictionaryFilter");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        mMainDicThread = thread;
+        thread.start();
+    }
+
+    // ファイルの辞書の層、辞書より後に保存したフィルタがあれば使う
+    private static DictionaryLayer openLayer(String name, MainDic dic, File file) {
+        File filterFile = new File(file.getPath() + FILTER_SUFFIX);
+        DictionaryLayer layer = new DictionaryLayer(name, dic, filterFile);
+        if (filterFile.exists() && filterFile.lastModified() >= file.lastModified()) {
+            try {
+                KeyFilter filter = KeyFilter.read(filterFile);
+                if (filter.matches(dic)) {
+                    layer.setFilter(filter);
+                }
+            } catch (IOException e) {
+                Log.e("openLayer", "IOException", e);
+            }
+        }
+        return layer;
+    }
+
+    // フィルタがなければ作る、保存先があれば保存して次からは読むだけにする
+    private static void buildFilter(DictionaryLayer layer) {
+        if (layer.getFilter() != null) {
+            return;
+        }
+        KeyFilter filter = KeyFilter.build(layer.getDic());
+        layer.setFilter(filter);
+        File file = layer.getFilterFile();
+        if (file != null) {
+            try {
+                filter.write(file);
+            } catch (IOException e) {
+                Log.e("buildFilter", "IOException", e);
+            }
+        }
+    }
+
+    // 読み込み専用の辞書の名前と見出し数、フィルタの使用メモリ(バイト)
+    public ArrayList<String> getLayerInfo() {
+        ArrayList<String> list = new ArrayList<>();
+        for (DictionaryLayer layer : mLayers) {
+            list.add(layer.getName() + " " + layer.getDic().size() + " filter=" + layer.getFilterSize());
+        }
+        return list;
+    }
+
+    // 差分ファイル(MainDicDeltaの形式)をメイン辞書に適用する(終わるまで待つ)
+    // 差分はfilesディレクトリのmain_dic.deltaに置いてから適用するので、途中で終了しても次の起動時に適用する
+    // 適用が終わるまでは今の辞書で検索する
+    // 戻り値は適用後のメイン辞書の版
+    public synchronized int updateMainDic(@NonNull InputStream in) throws IOException {
+        File delta = mStorage.getFile(DELTA_NAME);
+        File tmp = mStorage.getFile(DELTA_NAME + ".tmp");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    fos.write(buf, 0, n);
+                }
+                fos.getFD().sync();
+            }
+            if (!tmp.renameTo(delta)) {
+                throw new IOException("rename failed: " + tmp);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        applyDelta();
+        return getMainDicRevision();
+    }
+
+    // 起動時に適用待ちの差分があれば適用する
+    private synchronized void applyMainDicDelta() {
+        try {
+            applyDelta();
+        } catch (IOException e) {
+            Log.e("applyMainDicDelta", "IOException", e);
+        }
+    }
+
+    // 版が合わない差分は捨てる
+    private void applyDelta() throws IOException {
+        File delta = mStorage.getFile(DELTA_NAME);
+        MainDic base = mMainDic;
+        if (mClosed || !delta.exists()) {
+            return;
+        }
+        DictionaryLayer layer;
+        try {
+            if (base == null) {
+                throw new IOException("no main dictionary");
+            }
+            File file = mStorage.getFile(UPDATED_DIC_NAME);
+            MainDicDelta.apply(base, delta, file);
+            // 新しい辞書に切り替える
+            // 古い辞書はファイルが置き換えられてもマップしたまま使えるので、検索中のものはそのまま終わる
+            MainDic mainDic = new MainDic(file);
+            layer = new DictionaryLayer(MAIN_DIC_NAME, mainDic, new File(file.getPath() + FILTER_SUFFIX));
+            DictionaryLayer[] layers = mLayers.clone();
+            layers[0] = layer;  // メイン辞書は先頭
+            mMainDic = mainDic;
+            mLayers = layers;
+            mMainDicCache.clear();
+            mVersion.incrementAndGet();
+        } finally {
+            delta.delete();
+        }
+        buildFilter(layer);
+    }
+
+    // 学習内容をすぐにコミットする(バックグラウンドで)
+    public void commit() {
+        if (!mWriter.isShutdown()) {
+            mWriter.execute(this::commitJournal);
+        }
+    }
+
+    // 学習内容をコミットして終了する
+    // 待っている遅延コミットは捨て、最後のコミットをすぐに行う
+    public void close() {
+        mClosed = true;
+        mWriter.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mWriter.execute(() -> {
+            commitJournal();
+            mUserDicDB.close();
+            closeRetiredDBs();
+        });
+        mWriter.shutdown();
+    }
+
+    private void closeRetiredDBs() {
+        for (DB db : mRetiredDBs) {
+            db.close();
+        }
+        mRetiredDBs.clear();
+    }
+
+    // 終了処理が終わるまで待つ
+    // 書きかけのフィルタや辞書を次に開いた辞書が消さないように、バックグラウンドの処理も待つ
+    public void awaitClose() throws InterruptedException {
+        mWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        Thread thread = mMainDicThread;
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    // 一定時間後にまとめてコミットする
+    private void scheduleCommit() {
+        if (!mWriter.isShutdown() && mCommitScheduled.compareAndSet(false, true)) {
+            mWriter.schedule(this::commitJournal, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ジャーナルを切り替えてからユーザ辞書をコミットする
+    // 切り替え後の変更は新しいジャーナルに記録されるので失われない
+    // スコアは切り替えと同時に複製を取り、新しいジャーナルの分を含めない(再生で二重に数えない)
+    // ユーザ辞書は同じ語句を再生しても変わらないので、切り替え後の変更を含んでもよい
+    // (切り替え前の変更はすべてmPendingにあるので、書き込んでからコミットする)
+    private void commitJournal() {
+        mCommitScheduled.set(false);
+        if (mUserDicDB.isClosed()) {
+            return;
+        }
+        try {
+            RankingStore.Snapshot ranking;
+            synchronized (mJournal) {
+                mJournal.rotate();
+                ranking = mRanking.snapshot();
+            }
+            applyPending();
+            mUserDicDB.commit();
+            if (ranking != null) {
+                ranking.write(mRankingFile);
+            }
+            mJournal.discardOld();
+        } catch (IOException e) {
+            Log.e("commitJournal", "IOException", e);
+        }
+    }
+
+    // 学習する
+    // 呼び出したスレッドではジャーナルへの記録とスコアの更新だけを行い、ユーザ辞書にはmWriterが書き込む
+    public void add(@NonNull CharSequence keyword, String kanji) {
+        String key = keyword.toString();
+        synchronized (mJournal) {
+            try {
+                mJournal.append(UserDicJournal.OP_ADD, key, kanji);
+            } catch (IOException e) {
+                Log.e("add", "IOException", e);
+            }
+            mRanking.learn(key, kanji);
+            addPending(UserDicJournal.OP_ADD, key, kanji);
+        }
+        scheduleApply();
+        scheduleCommit();
+    }
+
+    // 削除する(書き込みはaddと同じ)
+    // 戻り値は削除前にユーザ辞書にあったか
+    public boolean delete(CharSequence keyword, String kanji) {
+        String key = keyword.toString();
+        boolean deleted = indexOf(searchUserDic(key), kanji) >= 0;
+        synchronized (mJournal) {
+            try {
+                mJournal.append(UserDicJournal.OP_DELETE, key, kanji);
+            } catch (IOException e) {
+                Log.e("delete", "IOException", e);
+            }
+            mRanking.forget(key, kanji);
+            addPending(UserDicJournal.OP_DELETE, key, kanji);
+        }
+        scheduleApply();
+        scheduleCommit();
+        return deleted;
+    }
+
+    // 書き込み待ちの学習・削除
+    private static final class PendingOp {
+        final byte op;
+        final String key;
+        final String value;
+
+        PendingOp(byte op, String key, String value) {
+            this.op = op;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // 版は追加の後で上げる(先に上げると、その間に検索した古い結果が新しい版として残る)
+    private void addPending(byte op, String key, String value) {
+        synchronized (mPending) {
+            mPending.add(new PendingOp(op, key, value));
+        }
+        mUserDicCache.remove(key);
+        mVersion.incrementAndGet();
+    }
+
+    private void scheduleApply() {
+        if (!mWriter.isShutdown() && mApplyScheduled.compareAndSet(false, true)) {
+            try {
+                mWriter.execute(this::applyPending);
+            } catch (RejectedExecutionException e) {
+                // 終了処理のコミットで書き込む
+            }
+        }
+    }
+
+    // 書き込み待ちの学習・削除をユーザ辞書に書き込む(mWriterで実行する)
+    // 書き込んでから取り除くので、その間の検索は同じ操作を二度重ねることがあるが、
+    // 追加も削除も重ねて行っても結果は変わらない
+    private void applyPending() {
+        mApplyScheduled.set(false);
+        PendingOp[] ops;
+        synchronized (mPending) {
+            ops = mPending.toArray(new PendingOp[0]);
+        }
+        if (ops.length == 0 || mUserDicDB.isClosed()) {
+            return;
+        }
+        for (PendingOp op : ops) {
+            if (op.op == UserDicJournal.OP_ADD) {
+                putUserDic(op.key, op.value);
+            } else {
+                removeUserDic(op.key, op.value);
+            }
+        }
+        synchronized (mPending) {
+            mPending.subList(0, ops.length).clear();
+        }
+    }
+
+    // ユーザ辞書の候補に書き込み待ちの操作を重ねる
+    private String[] applyPending(String key, PendingOp[] ops, String[] values) {
+        for (PendingOp op : ops) {
+            if (!op.key.equals(key)) {
+                continue;
+            }
+            if (op.op == UserDicJournal.OP_ADD) {
+                if (values == null) {
+                    values = new String[]{op.value};
+                } else if (indexOf(values, op.value) < 0) {
+                    String[] newVal = new String[values.length + 1];
+                    System.arraycopy(values, 0, newVal, 1, values.length);
+                    newVal[0] = op.value;
+                    values = newVal;
+                }
+            } else if (values != null) {
+                int index = indexOf(values, op.value);
+                if (index >= 0) {
+                    if (values.length == 1) {
+                        values = null;
+                    } else {
+                        String[] newVal = new String[values.length - 1];
+                        System.arraycopy(values, 0, newVal, 0, index);
+                        System.arraycopy(values, index + 1, newVal, index, newVal.length - index);
+                        values = newVal;
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private PendingOp[] getPending() {
+        synchronized (mPending) {
+            return mPending.isEmpty() ? NO_PENDING : mPending.toArray(new PendingOp[0]);
+        }
+    }
+
+    private void putUserDic(String key, String kanji) {
+        // 順位はスコアで決めるので、登録済みの語句なら辞書は書き換えない
+        String[] oldVal = mUserDicMap.get(key);
+        String[] newVal;
+        if (oldVal == null) {
+            newVal = new String[]{kanji};
+        } else {
+            if (indexOf(oldVal, kanji) >= 0) {
+                return;
+            }
+            // 新しいものを先頭にする
+            newVal = new String[oldVal.length + 1];
+            System.arraycopy(oldVal, 0, newVal, 1, oldVal.length);
+            newVal[0] = kanji;
+        }
+        if (!CandidatesSerializer.fits(newVal)) {
+            Log.e("putUserDic", "too long: " + key, null);
+            return;
+        }
+        mUserDicMap.put(key, newVal);
+        mUserDicCache.remove(key);
+    }
+
+    private void removeUserDic(String key, String kanji) {
+        String[] oldVal = mUserDicMap.get(key);
+        if (oldVal == null) {
+            return;
+        }
+        int index = indexOf(oldVal, kanji);
+        if (index >= 0) {
+            if (oldVal.length == 1) {
+                mUserDicMap.remove(key);
+            } else {
+                String[] newVal = new String[oldVal.length - 1];
+                System.arraycopy(oldVal, 0, newVal, 0, index);
+                System.arraycopy(oldVal, index + 1, newVal, index, newVal.length - index);
+                mUserDicMap.put(key, newVal);
+            }
+            mUserDicCache.remove(key);
+        }
+    }
+
+    // SKK辞書形式の語句をユーザ辞書に取り込む(終わるまで待つ)
+    // 戻り値は取り込んだ見出しの数
+    public int importSkk(@NonNull InputStream in) throws IOException {
+        return callWriter(() -> bulkImport(new SkkJisyo(in)));
+    }
+
+    // ユーザ辞書をSKK辞書形式(UTF-8)で書き出す(終わるまで待つ)
+    // 送りありは見出しの降順、送りなしは昇順(SKK-JISYOと同じ並び)
+    // 戻り値は書き出した見出しの数
+    public int exportSkk(@NonNull OutputStream out) throws IOException {
+        return callWriter(() -> {
+            BTreeMap<String, String[]> map = mUserDicMap;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(SkkJisyo.CODING_UTF8 + "\n");
+            writer.write(SkkJisyo.OKURI_ARI + "\n");
+            int count = 0;
+            for (Map.Entry<String, String[]> e : map.descendingMap().entrySet()) {
+                if (SkkJisyo.isOkuriAri(e.getKey())) {
+                    SkkJisyo.write(writer, e.getKey(), e.getValue());
+                    count++;
+                }
+            }
+            writer.write(SkkJisyo.OKURI_NASI + "\n");
+            for (Map.Entry<String, String[]> e : map.entrySet()) {
+                if (!SkkJisyo.isOkuriAri(e.getKey())) {
+                    SkkJisyo.write(writer, e.getKey(), e.getValue());
+                    count++;
+                }
+            }
+            writer.flush();
+            return count;
+        });
+    }
+
+    // ユーザ辞書を書き込むスレッドで実行して終わるまで待つ
+    // コミットやファイルの置き換えと同時に動かないようにするため
+    private int callWriter(Callable<Integer> task) throws IOException {
+        try {
+            return mWriter.submit(task).get();
+        } catch (RejectedExecutionException e) {
+            throw new IOException("dictionary closed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // 取り込む語句を外部ソートして今のユーザ辞書と合わせ、トランザクションなしの別のファイルに一括で書き込む
+    // 書き終わったらファイルを置き換え、その間の学習内容はジャーナルから反映する
+    private int bulkImport(SkkJisyo jisyo) throws IOException {
+        commitJournal();    // これ以降の学習内容はジャーナルに残る
+        Iterator<Fun.Tuple2<String, String[]>> source = new Iterator<Fun.Tuple2<String, String[]>>() {
+            private Boolean mHasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (mHasNext == null) {
+                    try {
+                        mHasNext = jisyo.next();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return mHasNext;
+            }
+
+            @Override
+            public Fun.Tuple2<String, String[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                mHasNext = null;
+                return new Fun.Tuple2<>(jisyo.getKey(), jisyo.getValues());
+            }
+        };
+        // BTreeMapの一括作成は見出しの降順で渡す
+        Comparator<Fun.Tuple2<String, String[]>> descending = (a, b) -> b.a.compareTo(a.a);
+        MergeIterator merged = new MergeIterator(
+                Pump.sort(source, false, IMPORT_SORT_BATCH, descending, Serializer.BASIC),
+                mUserDicMap.descendingMap().entrySet().iterator());
+
+        File file = mStorage.getFile(IMPORT_NAME);
+        try {
+            DB db = DBMaker.newFileDB(file).transactionDisable().make();
+            try {
+                db.createTreeMap(MAP_NAME)
+                        .keySerializer(BTreeKeySerializer.STRING)
+                        .valueSerializer(new CandidatesSerializer())
+                        .pumpSource(merged)
+                        .make();
+            } finally {
+                db.close();
+            }
+            if (!mStorage.getFile(IMPORT_DONE_NAME).createNewFile()) {
+                throw new IOException("cannot create " + IMPORT_DONE_NAME);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteDBFiles(file);
+            throw e;
+        }
+
+        // ユーザ辞書に書くのはmWriterだけなので、置き換えにロックはいらない
+        // 取り込み中の学習内容はmPendingに残っていて(この後のcommitJournalで新しい辞書に書く)、
+        // それまでの検索は古い辞書に重ねて返す。学習するスレッドはこの間も待たない
+        DB oldDB = mUserDicDB;
+        finishImport();
+        initUserDic(mStorage.getFile(USER_DIC_NAME));
+        mUserDicCache.clear();
+        mVersion.incrementAndGet();
+        // 検索中のスレッドが古い辞書を使い終わってから閉じる(先に終了したらclose()で閉じる)
+        mRetiredDBs.add(oldDB);
+        mWriter.schedule(() -> {
+            if (mRetiredDBs.remove(oldDB)) {
+                oldDB.close();
+            }
+        }, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+        commitJournal();
+        return merged.mImportedKeys;
+    }
+
+    // 書き終わった取り込み結果があればユーザ辞書のファイルと置き換える
+    // 置き換えの途中で止まっていたら続きを行い、書きかけなら捨てる
+    private void finishImport() throws IOException {
+        File file = mStorage.getFile(IMPORT_NAME);
+        File done = mStorage.getFile(IMPORT_DONE_NAME);
+        if (!done.exists()) {
+            deleteDBFiles(file);
+            return;
+        }
+        File dest = mStorage.getFile(USER_DIC_NAME);
+        for (String ext : new String[]{"", ".p"}) {
+            File src = new File(file.getPath() + ext);
+            if (src.exists() && !src.renameTo(new File(dest.getPath() + ext))) {
+                throw new IOException("rename failed: " + src);
+            }
+        }
+        // 古いログを新しいファイルに適用しないようにする
+        new File(dest.getPath() + ".t").delete();
+        done.delete();
+    }
+
+    // MapDBのファイル一式を消す
+    private static void deleteDBFiles(File file) {
+        for (String ext : new String[]{"", ".p", ".t"}) {
+            new File(file.getPath() + ext).delete();
+        }
+    }
+
+    // 降順に並んだ取り込む語句と今のユーザ辞書を合わせて降順に返す
+    // 同じ見出しは今の候補の後にない候補を足す
+    private static class MergeIterator implements Iterator<Fun.Tuple2<String, String[]>> {
+        private final Iterator<Fun.Tuple2<String, String[]>> mImported;
+        private final Iterator<Map.Entry<String, String[]>> mCurrent;
+        private Fun.Tuple2<String, String[]> mNextImported;
+        private Map.Entry<String, String[]> mNextCurrent;
+        int mImportedKeys;
+
+        MergeIterator(Iterator<Fun.Tuple2<String, String[]>> imported, Iterator<Map.Entry<String, String[]>> current) {
+            mImported = imported;
+            mCurrent = current;
+            mNextImported = imported.hasNext() ? imported.next() : null;
+            mNextCurrent = current.hasNext() ? current.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNextImported != null || mNextCurrent != null;
+        }
+
+        @Override
+        public Fun.Tuple2<String, String[]> next() {
+            if (mNextImported == null
+                    || (mNextCurrent != null && mNextCurrent.getKey().compareTo(mNextImported.a) > 0)) {
+                if (mNextCurrent == null) {
+                    throw new NoSuchElementException();
+                }
+                Fun.Tuple2<String, String[]> t = new Fun.Tuple2<>(mNextCurrent.getKey(), mNextCurrent.getValue());
+                mNextCurrent = mCurrent.hasNext() ? mCurrent.next() : null;
+                return t;
+            }
+            String key = mNextImported.a;
+            String[] values = mNextImported.b;
+            mNextImported = mImported.hasNext() ? mImported.next() : null;
+            while (mNextImported != null && mNextImported.a.equals(key)) {
+                values = union(Arrays.asList(values, mNextImported.b));
+                mNextImported = mImported.hasNext() ? mImported.next() : null;
+            }
+            if (mNextCurrent != null && mNextCurrent.getKey().equals(key)) {
+                values = union(Arrays.asList(mNextCurrent.getValue(), values));
+                mNextCurrent = mCurrent.hasNext() ? mCurrent.next() : null;
+            }
+            mImportedKeys++;
+            return new Fun.Tuple2<>(key, values);
+        }
+    }
+
+    // 辞書の版、学習・削除とメイン辞書の更新で変わる
+    public int getVersion() {
+        return mVersion.get();
+    }
+
+    // メイン辞書のデータの版、メイン辞書がなければ-1
+    public int getMainDicRevision() {
+        MainDic mainDic = mMainDic;
+        return mainDic != null ? mainDic.getRevision() : -1;
+    }
+
+    // 学習スコア
+    public float getScore(@NonNull String key, @NonNull String value) {
+        return mRanking.getScore(key, value);
+    }
+
+    private static int indexOf(String[] values, String value) {
+        if (values == null) {
+            return -1;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (value.equals(values[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 候補検索(読み込み専用の辞書をすべて合わせたもの)
+    // 層ごとのフィルタでないキーは辞書を読まず、合わせた結果をキャッシュするので、
+    // 辞書を増やしても検索の時間はほとんど増えない
+    public String[] searchMainDic(@NonNull CharSequence keyword) {
+        return mMainDicCache.get(keyword.toString(), key -> {
+            ArrayList<String[]> found = null;
+            for (DictionaryLayer layer : mLayers) {
+                String[] values = layer.search(key);
+                if (values == null) {
+                    continue;
+                }
+                if (found == null) {
+                    found = new ArrayList<>(2);
+                }
+                found.add(values);
+            }
+            return found == null ? null : union(found);
+        });
+    }
+
+    // 最初の候補の後ろに、後の候補のうちまだないものを順に足す
+    // 重複はハッシュで調べるので、候補と層が増えても合わせる時間は候補の総数に比例する
+    private static String[] union(List<String[]> lists) {
+        String[] first = lists.get(0);
+        if (lists.size() == 1) {
+            return first;
+        }
+        LinkedHashSet<String> set = new LinkedHashSet<>(Arrays.asList(first));
+        for (int i = 1; i < lists.size(); i++) {
+            Collections.addAll(set, lists.get(i));
+        }
+        return set.size() == first.length ? first : set.toArray(new String[0]);
+    }
+
+    // 候補検索
+    // 書き込み待ちの操作を先に取ってからユーザ辞書を読む(逆の順だと、その間に書き込まれた操作が抜ける)
+    public String[] searchUserDic(@NonNull CharSequence keyword) {
+        return mUserDicCache.get(keyword.toString(), key -> {
+            PendingOp[] ops = getPending();
+            return applyPending(key, ops, mUserDicMap.get(key));
+        });
+    }
+
+    // 読みで始まるキーがいずれかの辞書にあるか
+    public boolean hasPrefix(@NonNull CharSequence keyword) {
+        String yomi = keyword.toString();
+        for (PendingOp op : getPending()) {
+            if (op.op == UserDicJournal.OP_ADD && op.key.startsWith(yomi)) {
+                return true;
+            }
+        }
+        String key = mUserDicMap.ceilingKey(yomi);
+        if (key != null && key.startsWith(yomi)) {
+            return true;
+        }
+        for (DictionaryLayer layer : mLayers) {
+            if (layer.hasPrefix(yomi)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 読みで始まる読み込み専用の辞書のキーを短い順にlimit件まで列挙(送りなしのみ)
+    public ArrayList<String> getMainKeys(CharSequence keyword, int limit) {
+        ArrayList<String> list = new ArrayList<>();
+        DictionaryLayer[] layers = mLayers;
+        long deadline = System.nanoTime() + PREDICT_BUDGET_NS;
+        for (DictionaryLayer layer : layers) {
+            layer.predict(keyword, limit, PREDICT_MAX_SCAN, deadline, list);
+        }
+        if (layers.length > 1) {
+            // 層ごとの結果を合わせて短い順に並べ直す
+            TreeSet<String> set = new TreeSet<>(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+            set.addAll(list);
+            list.clear();
+            for (String key : set) {
+                if (list.size() == limit) {
+                    break;
+                }
+                list.add(key);
+            }
+        }
+        return list;
+    }
+
+    // 読みで始まるキーを列挙(書き込み待ちで削除したキーを含むことがある)
+    public ArrayList<String> getUserKeys(CharSequence keyword) {
+        String yomi = keyword.toString();
+        ArrayList<String> list = new ArrayList<>();
+        for (PendingOp op : getPending()) {
+            if (op.op == UserDicJournal.OP_ADD && op.key.startsWith(yomi) && !list.contains(op.key)) {
+                list.add(op.key);
+            }
+        }
+        int pending = list.size();
+
+        // キーは昇順に並んでいるので読みで始まらないキーが現れたら終了
+        for (String key : mUserDicMap.tailMap(yomi, true).keySet()) {
+            if (!key.startsWith(yomi)) {
+                break;
+            }
+            if (pending == 0 || !list.subList(0, pending).contains(key)) {
+                list.add(key);
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+
+// 読み込み専用の辞書の1層(メイン辞書、人名・地名などの追加の辞書)
+// キーのフィルタ(KeyFilter)を持ち、ないキーでは辞書を読まない
+// フィルタがないうちは常に辞書を読む
+final class DictionaryLayer {
+    private final String mName;
+    private final MainDic mDic;
+    private final File mFilterFile;     // 作ったフィルタを保存するファイル、保存しなければnull
+    private volatile KeyFilter mFilter;
+
+    DictionaryLayer(@NonNull String name, @NonNull MainDic dic, @Nullable File filterFile) {
+        mName = name;
+        mDic = dic;
+        mFilterFile = filterFile;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    MainDic getDic() {
+        return mDic;
+    }
+
+    File getFilterFile() {
+        return mFilterFile;
+    }
+
+    KeyFilter getFilter() {
+        return mFilter;
+    }
+
+    void setFilter(@NonNull KeyFilter filter) {
+        mFilter = filter;
+    }
+
+    // 候補検索
+    String[] search(@NonNull String key) {
+        KeyFilter filter = mFilter;
+        if (filter != null && !filter.mightContainKey(key)) {
+            return null;
+        }
+        return mDic.search(key);
+    }
+
+    // prefixで始まるキーがあるか
+    boolean hasPrefix(@NonNull CharSequence prefix) {
+        KeyFilter filter = mFilter;
+        if (filter != null && !filter.mightContainPrefix(prefix)) {
+            return false;
+        }
+        return mDic.hasPrefix(prefix);
+    }
+
+    // prefixで始まる送りなしのキーを短い順にlimit件までlistに追加する
+    void predict(@NonNull CharSequence prefix, int limit, int maxScan, long deadline, ArrayList<String> list) {
+        KeyFilter filter = mFilter;
+        if (filter != null && !filter.mightContainPrefix(prefix)) {
+            return;
+        }
+        for (int index : mDic.predict(prefix, limit, maxScan, deadline)) {
+            list.add(mDic.getKey(index));
+        }
+    }
+
+    // フィルタの使用メモリ(バイト)、なければ0
+    int getFilterSize() {
+        KeyFilter filter = mFilter;
+        return filter != null ? filter.getSize() : 0;
+    }
+}
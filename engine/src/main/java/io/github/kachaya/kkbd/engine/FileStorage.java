@@ -0,0 +1,36 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// ディレクトリを指定するStorage
+public class FileStorage implements Storage {
+    private final File mFilesDir;
+    private final File mAssetsDir;
+
+    // filesDirに辞書ファイルを作り、同梱データはassetsDirから読む
+    public FileStorage(@NonNull File filesDir, @NonNull File assetsDir) {
+        mFilesDir = filesDir;
+        mAssetsDir = assetsDir;
+    }
+
+    @NonNull
+    @Override
+    public File getFile(@NonNull String name) {
+        return new File(mFilesDir, name);
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer mapAsset(@NonNull String name) throws IOException {
+        try (FileInputStream fis = new FileInputStream(new File(mAssetsDir, name))) {
+            FileChannel fc = fis.getChannel();
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// 辞書(MainDic)のキーのフィルタ
+// キーと、キーの先頭部分(キー自身を含む)のブルームフィルタの組
+// 辞書を作るときに一緒に作って辞書の隣に置き、起動時はマップするだけにする
+//
+// ファイル形式(ビッグエンディアン)
+//   int     MAGIC
+//   int     VERSION
+//   int     辞書の版 (MainDic.getRevision())
+//   int     辞書のエントリ数
+//   BloomFilter キー
+//   BloomFilter キーの先頭部分
+public class KeyFilter {
+    public static final int MAGIC = 0x4B4B4246;    // "KKBF"
+    public static final int VERSION = 1;
+
+    private final int mRevision;
+    private final int mCount;
+    private final BloomFilter mKeys;
+    private final BloomFilter mPrefixes;
+
+    private KeyFilter(int revision, int count, BloomFilter keys, BloomFilter prefixes) {
+        mRevision = revision;
+        mCount = count;
+        mKeys = keys;
+        mPrefixes = prefixes;
+    }
+
+    // 辞書のキーをすべて入れて作る
+    // キーは昇順なので、前のキーと共通する先頭部分は数えない
+    @NonNull
+    public static KeyFilter build(@NonNull MainDic dic) {
+        int[] prefixNum = new int[1];
+        dic.scanKeys(new MainDic.KeyVisitor() {
+            private String mLast = "";
+
+            @Override
+            public void visit(String key) {
+                prefixNum[0] += key.length() - commonPrefixLength(mLast, key);
+                mLast = key;
+            }
+        });
+        BloomFilter keys = new BloomFilter(dic.size());
+        BloomFilter prefixes = new BloomFilter(prefixNum[0]);
+        dic.scanKeys(new MainDic.KeyVisitor() {
+            private String mLast = "";
+
+            @Override
+            public void visit(String key) {
+                keys.add(key);
+                for (int len = commonPrefixLength(mLast, key) + 1; len <= key.length(); len++) {
+                    prefixes.add(key, len);
+                }
+                mLast = key;
+            }
+        });
+        return new KeyFilter(dic.getRevision(), dic.size(), keys, prefixes);
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    // bufはファイル全体(APKの中のassetをマップしたものなど)
+    @NonNull
+    public static KeyFilter read(@NonNull ByteBuffer buf) throws IOException {
+        buf = buf.duplicate();
+        if (buf.remaining() < 16 || buf.getInt() != MAGIC) {
+            throw new IOException("bad magic");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        int revision = buf.getInt();
+        int count = buf.getInt();
+        BloomFilter keys = BloomFilter.read(buf);
+        BloomFilter prefixes = BloomFilter.read(buf);
+        return new KeyFilter(revision, count, keys, prefixes);
+    }
+
+    @NonNull
+    public static KeyFilter read(@NonNull File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel fc = raf.getChannel();
+            return read(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+        }
+    }
+
+    // 一時ファイルに書いてから置き換える
+    public void write(@NonNull File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeInt(mRevision);
+                dos.writeInt(mCount);
+                mKeys.write(dos);
+                mPrefixes.write(dos);
+                dos.flush();
+                fos.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed: " + tmp);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    // dicから作ったものか(版とエントリ数で判定する)
+    public boolean matches(@NonNull MainDic dic) {
+        return mRevision == dic.getRevision() && mCount == dic.size();
+    }
+
+    // falseならそのキーはない
+    public boolean mightContainKey(@NonNull CharSequence key) {
+        return mKeys.mightContain(key);
+    }
+
+    // falseならprefixで始まるキーはない
+    public boolean mightContainPrefix(@NonNull CharSequence prefix) {
+        return prefix.length() == 0 || mPrefixes.mightContain(prefix);
+    }
+
+    // 使用メモリ(バイト)
+    public int getSize() {
+        return mKeys.getSize() + mPrefixes.getSize();
+    }
+}
@@ -0,0 +1,182 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// キー入力の記録(性能調査用)
+// 入力の順序と時刻だけを記録し、変換結果は記録しない
+//
+// ヘッダ: int MAGIC
+// レコード: byte イベント, varint 前のレコードからの経過時間(マイクロ秒), varint 引数(引数のあるイベントのみ)
+//
+// 追記していくので、複数回の入力が続けて記録される
+// 最大サイズを超えたら次の入力開始で古い記録(.old)に移し、新しいファイルに記録する
+public class KeyTrace {
+    public static final int MAGIC = 0x4B4B5452;    // "KKTR"
+    public static final int MAX_SIZE = 8 * 1024 * 1024;
+    public static final String OLD_SUFFIX = ".old";
+
+    public static final int EVENT_START = 1;        // 入力開始、引数はライブ変換なら1
+    public static final int EVENT_MODE = 2;         // 入力モード切り替え、引数は入力モード
+    public static final int EVENT_CHAR = 3;         // 文字入力、引数は文字
+    public static final int EVENT_SPACE = 4;
+    public static final int EVENT_BACKSPACE = 5;
+    public static final int EVENT_ENTER = 6;
+    public static final int EVENT_CANDIDATE = 7;    // 候補選択、引数は候補の番号
+    public static final int EVENT_NUM = 8;
+
+    private static final String[] EVENT_NAMES = {
+            "", "start", "mode", "char", "space", "backspace", "enter", "candidate"
+    };
+
+    public interface Replayer {
+        // timeは記録の先頭からの経過時間(マイクロ秒)
+        void replay(int event, long time, int arg);
+    }
+
+    private final File mFile;
+    private DataOutputStream mOut;
+    private long mSize;
+    private long mLastTime;
+    private boolean mFailed;
+
+    public KeyTrace(@NonNull File file) {
+        mFile = file;
+    }
+
+    public static String getEventName(int event) {
+        return EVENT_NAMES[event];
+    }
+
+    private static boolean hasArg(int event) {
+        return event == EVENT_START || event == EVENT_MODE || event == EVENT_CHAR || event == EVENT_CANDIDATE;
+    }
+
+    // 書き込みに失敗したら記録をやめてfalseを返す
+    public synchronized boolean record(int event, int arg) {
+        if (mFailed) {
+            return false;
+        }
+        try {
+            // 入力の途中で切らないように入力開始で切り替える(1回の入力が長すぎるときはその場で)
+            if (mSize > MAX_SIZE && (event == EVENT_START || mSize > 2L * MAX_SIZE)) {
+                rotate();
+            }
+            long now = System.nanoTime() / 1000;
+            if (mOut == null) {
+                mSize = mFile.length();
+                mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+                if (mSize == 0) {
+                    mOut.writeInt(MAGIC);
+                }
+                mLastTime = now;
+            }
+            int size = mOut.size();
+            mOut.writeByte(event);
+            writeVarint(mOut, now - mLastTime);
+            if (hasArg(event)) {
+                writeVarint(mOut, arg);
+            }
+            mSize += mOut.size() - size;
+            mLastTime = now;
+            return true;
+        } catch (IOException e) {
+            Log.e("KeyTrace", "IOException", e);
+            mFailed = true;
+            return false;
+        }
+    }
+
+    // 今の記録を古い記録にする(前の古い記録は消える)
+    private void rotate() throws IOException {
+        if (mOut != null) {
+            mOut.close();
+            mOut = null;
+        }
+        File old = new File(mFile.getPath() + OLD_SUFFIX);
+        old.delete();
+        if (!mFile.renameTo(old)) {
+            throw new IOException("rename failed: " + mFile);
+        }
+        mSize = 0;
+    }
+
+    public synchronized void flush() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.flush();
+        } catch (IOException e) {
+            Log.e("KeyTrace", "IOException", e);
+        }
+    }
+
+    public synchronized void close() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            Log.e("KeyTrace", "IOException", e);
+        }
+        mOut = null;
+    }
+
+    // 記録されているイベントを順に再生する、途中で切れたレコードは捨てる
+    public static void replay(@NonNull File file, @NonNull Replayer replayer) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("not a key trace: " + file);
+            }
+            long time = 0;
+            while (true) {
+                int event;
+                int arg = 0;
+                try {
+                    event = dis.readUnsignedByte();
+                    time += readVarint(dis);
+                    if (hasArg(event)) {
+                        arg = (int) readVarint(dis);
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                if (event <= 0 || event >= EVENT_NUM) {
+                    throw new IOException("unknown event: " + event);
+                }
+                replayer.replay(event, time, arg);
+            }
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
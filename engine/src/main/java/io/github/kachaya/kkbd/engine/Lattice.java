@@ -0,0 +1,341 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+// 読みを文節に区切る
+//
+// 読みの各位置から始まる辞書の語(送りなし・送りあり)、付属語、1文字のかなをノードとするラティスを作り、
+// ノードのコストと、前のノードの種類で決まる接続コストの合計が最小になる経路をビタビ法で求める。
+// 付属語とかなは直前の語につながり、語のノードから新しい文節が始まる。
+//
+// 語の読みはMAX_WORD_LENGTH文字まで、その読みで始まるキーが辞書になくなった時点で打ち切るので、
+// ノード数と辞書検索の回数は読みの長さに比例する
+//
+// 前回の読みと共通する先頭部分の結果は残しておき、読みの末尾に追加・削除された分だけを計算する。
+// 位置ごとの結果はそれより前の位置だけで決まるので、末尾を削っても残りはそのまま使える
+public class Lattice {
+    private static final int MAX_WORD_LENGTH = 12;
+
+    // 語のコスト
+    private static final int WORD_COST = 100;
+    private static final int LENGTH_BONUS = 20;     // 読み1文字あたり(送りがなを含む)
+    private static final int USER_BONUS = 10;       // ユーザ辞書の語
+    private static final int SCORE_BONUS = 10;      // 学習スコア1あたり
+    private static final float MAX_SCORE = 5;
+    private static final int KANA_WORD_COST = 40;   // かなで書く語
+    // 付属語とかなのコスト
+    private static final int FUNC_COST = 10;
+    private static final int KANA_COST = 65;
+
+    // 助詞
+    private static final String[] PARTICLES = {
+            "は", "が", "を", "に", "で", "と", "の", "へ", "も", "や", "か", "ね", "よ", "わ", "ぞ", "さ",
+            "から", "まで", "より", "けど", "けれど", "けれども", "ので", "のに", "ながら", "だけ", "しか",
+            "など", "ほど", "くらい", "ぐらい",
+            "では", "には", "とは", "でも", "にも", "とも", "への", "での", "との", "からの", "までの",
+    };
+    // 助動詞・活用語尾など
+    private static final String[] AUXES = {
+            "し", "て", "た", "だ", "ば", "う", "な",
+            "です", "でした", "でしょう", "ます", "ました", "ません", "ましょう", "ませんでした",
+            "ない", "なかった", "なく", "たい", "たかった", "れる", "られる", "せる", "させる",
+            "ている", "ていた", "ています", "ていました", "てる", "いる", "いた", "います", "いました",
+            "する", "した", "して", "します", "しました", "しましょう", "よう", "だろう", "らしい", "みたい",
+            "ください", "いて",
+    };
+    // かなで書く語
+    private static final String[] KANA_WORDS = {
+            "いい", "この", "その", "あの", "どの", "これ", "それ", "あれ", "どれ", "ここ", "そこ", "あそこ", "どこ",
+            "とても", "もっと", "すごく", "ちょっと", "また", "まだ", "もう", "よく", "そして", "しかし",
+    };
+    private static final int MAX_FUNC_LENGTH = 6;
+    private static final HashSet<String> particleSet = new HashSet<>(Arrays.asList(PARTICLES));
+    private static final HashSet<String> auxSet = new HashSet<>(Arrays.asList(AUXES));
+    private static final HashSet<String> kanaWordSet = new HashSet<>(Arrays.asList(KANA_WORDS));
+
+    // ノードの種類
+    private static final int WORD = 0;      // 自立語
+    private static final int OKURI = 1;     // 送りありの語
+    private static final int PARTICLE = 2;  // 助詞
+    private static final int AUX = 3;       // 助動詞など
+    private static final int KANA = 4;      // 1文字のかな
+    // 経路の状態はノードの種類、ただし語につながらないかな(先頭を含む)はFREE
+    private static final int FREE = 5;
+    private static final int STATES = 6;
+    private static final int X = Integer.MAX_VALUE;     // つながらない
+    // 接続コスト [状態][次のノードの種類]
+    // 語の直後の1文字のかな(「今日は|い|移転|き」の「い」「き」)と、助詞の連続(「で|か|い」)は高くする
+    private static final int[][] CONNECT_COST = {
+            // 語, 送りあり, 助詞, 助動詞, かな
+            {40, 40, 0, 10, 40},    // 語
+            {40, 40, 20, -10, 0},   // 送りあり
+            {0, 0, 50, 10, 10},     // 助詞
+            {0, 0, 0, -5, 10},      // 助動詞
+            {0, 0, 0, 0, 10},       // かな
+            {0, 0, X, X, 20},       // 語につながらないかな
+    };
+    private static final int INF = Integer.MAX_VALUE;
+    private static final int INITIAL_CAPACITY = 64;
+
+    // 文節
+    public static class Segment {
+        public final String reading;    // 読み
+        public final String text;       // 最良の表記(なければnull)
+
+        Segment(String reading, String text) {
+            this.reading = reading;
+            this.text = text;
+        }
+    }
+
+    private static class Node {
+        final int start;
+        final int end;
+        final int type;
+        final int cost;
+        final String text;
+
+        Node(int start, int end, int type, int cost, String text) {
+            this.start = start;
+            this.end = end;
+            this.type = type;
+            this.cost = cost;
+            this.text = text;
+        }
+    }
+
+    private final Dictionary mDictionary;
+    private int mVersion;   // 計算したときの辞書の版
+
+    // 計算済みの読み
+    private final StringBuilder mReading = new StringBuilder();
+    // 位置と状態ごとの最小コストと、その経路の最後のノードと前の状態
+    private int[][] mBest = new int[INITIAL_CAPACITY + 1][STATES];
+    private Node[][] mLast = new Node[INITIAL_CAPACITY + 1][STATES];
+    private int[][] mLastState = new int[INITIAL_CAPACITY + 1][STATES];
+    // 位置ごと、そこから始まる読みが辞書のキーの先頭にならなくなる終わりの位置(不明ならINF)
+    private int[] mDeadAt = new int[INITIAL_CAPACITY + 1];
+
+    public Lattice(Dictionary dictionary) {
+        mDictionary = dictionary;
+        mVersion = dictionary.getVersion();
+        Arrays.fill(mBest[0], INF);
+        mBest[0][FREE] = 0;
+    }
+
+    // 読みを文節に区切る
+    public ArrayList<Segment> segment(@NonNull String reading) {
+        int version = mDictionary.getVersion();
+        if (version != mVersion) {
+            mVersion = version;
+            trim(0);    // 辞書が変わったので計算し直す
+        }
+        int n = reading.length();
+        int common = 0;
+        while (common < n && common < mReading.length() && reading.charAt(common) == mReading.charAt(common)) {
+            common++;
+        }
+        trim(common);
+        for (int i = common; i < n; i++) {
+            append(reading.charAt(i));
+        }
+        return backtrack();
+    }
+
+    // 読みの末尾を削る
+    private void trim(int length) {
+        for (int start = Math.max(0, length - MAX_WORD_LENGTH); start < length; start++) {
+            if (mDeadAt[start] > length) {
+                mDeadAt[start] = INF;   // 削った部分で判定したものは取り消す
+            }
+        }
+        mReading.setLength(length);
+    }
+
+    // 読みの末尾に1文字追加し、そこで終わるノードだけを調べる
+    private void append(char ch) {
+        int end = mReading.length() + 1;
+        mReading.append(ch);
+        if (end >= mBest.length) {
+            grow();
+        }
+        Arrays.fill(mBest[end], INF);
+        mDeadAt[end - 1] = INF;
+
+        // かな
+        relax(new Node(end - 1, end, KANA, KANA_COST, String.valueOf(ch)));
+        // 付属語・かなで書く語
+        for (int start = Math.max(0, end - MAX_FUNC_LENGTH); start < end; start++) {
+            String func = mReading.substring(start, end);
+            if (particleSet.contains(func)) {
+                relax(new Node(start, end, PARTICLE, FUNC_COST, func));
+            }
+            if (auxSet.contains(func)) {
+                relax(new Node(start, end, AUX, FUNC_COST, func));
+            }
+            if (kanaWordSet.contains(func)) {
+                relax(new Node(start, end, WORD, KANA_WORD_COST, func));
+            }
+        }
+        // 送りなし
+        for (int start = Math.max(0, end - MAX_WORD_LENGTH); start < end; start++) {
+            if (mDeadAt[start] != INF) {
+                continue;
+            }
+            String yomi = mReading.substring(start, end);
+            if (!mDictionary.hasPrefix(yomi)) {
+                mDeadAt[start] = end;   // これより長い語はない
+                continue;
+            }
+            addWord(start, end, yomi, "");
+        }
+        // 送りあり(語の後ろの1文字、または「っ」と1文字)
+        if (ch != 'っ') {
+            addOkuriWords(end, 1);
+            if (end >= 2 && mReading.charAt(end - 2) == 'っ') {
+                addOkuriWords(end, 2);
+            }
+        }
+    }
+
+    private void addOkuriWords(int end, int okuriLength) {
+        int wordEnd = end - okuriLength;
+        if (Converter.getOkuriLength(mReading, wordEnd) != okuriLength) {
+            return;
+        }
+        char ascii = Converter.getOkuriAscii(mReading, wordEnd);
+        String okuri = null;
+        for (int start = Math.max(0, wordEnd - MAX_WORD_LENGTH); start < wordEnd; start++) {
+            if (mDeadAt[start] > wordEnd) {
+                if (okuri == null) {
+                    okuri = mReading.substring(wordEnd, end);
+                }
+                addWord(start, end, mReading.substring(start, wordEnd) + ascii, okuri);
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = mBest.length * 2;
+        mBest = Arrays.copyOf(mBest, capacity);
+        mLast = Arrays.copyOf(mLast, capacity);
+        mLastState = Arrays.copyOf(mLastState, capacity);
+        mDeadAt = Arrays.copyOf(mDeadAt, capacity);
+        for (int i = capacity / 2; i < capacity; i++) {
+            mBest[i] = new int[STATES];
+            mLast[i] = new Node[STATES];
+            mLastState[i] = new int[STATES];
+        }
+    }
+
+    // nodeの始まりまでの各状態からnodeをつないだ経路を調べる
+    private void relax(Node node) {
+        int[] best = mBest[node.start];
+        for (int state = 0; state < STATES; state++) {
+            if (best[state] == INF) {
+                continue;
+            }
+            int connect = CONNECT_COST[state][node.type];
+            if (connect == X) {
+                continue;   // 付属語は語の後ろだけ
+            }
+            int cost = best[state] + node.cost + connect;
+            int next = node.type;
+            if (state == FREE && node.type == KANA) {
+                next = FREE;
+            } else if (node.type == OKURI && isTeForm(node.text)) {
+                next = AUX;     // 「て」「で」で終わる送りありは活用が済んでいる
+            }
+            if (cost < mBest[node.end][next]) {
+                mBest[node.end][next] = cost;
+                mLast[node.end][next] = node;
+                mLastState[node.end][next] = state;
+            }
+        }
+    }
+
+    private static boolean isTeForm(String text) {
+        char ch = text.charAt(text.length() - 1);
+        return ch == 'て' || ch == 'で';
+    }
+
+    // 末尾から最小コストの経路をたどり、語から新しい文節を始める
+    private ArrayList<Segment> backtrack() {
+        int n = mReading.length();
+        ArrayList<Node> path = new ArrayList<>();
+        int state = 0;
+        for (int i = 1; i < STATES; i++) {
+            if (mBest[n][i] < mBest[n][state]) {
+                state = i;
+            }
+        }
+        for (int pos = n; pos > 0; ) {
+            Node node = mLast[pos][state];
+            path.add(node);
+            state = mLastState[pos][state];
+            pos = node.start;
+        }
+
+        ArrayList<Segment> segments = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int start = 0;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node node = path.get(i);
+            if ((node.type == WORD || node.type == OKURI) && node.start > start) {
+                segments.add(new Segment(mReading.substring(start, node.start), text.toString()));
+                text.setLength(0);
+                start = node.start;
+            }
+            text.append(node.text);
+        }
+        if (n > start) {
+            segments.add(new Segment(mReading.substring(start, n), text.toString()));
+        }
+        return segments;
+    }
+
+    // 辞書にあれば学習スコアの最も高い候補を語のノードにする
+    private void addWord(int start, int end, String key, String okuri) {
+        String[] userValues = mDictionary.searchUserDic(key);
+        String[] mainValues = mDictionary.searchMainDic(key);
+        String text = null;
+        float score = -1;
+        boolean user = false;
+        if (userValues != null) {
+            for (String value : userValues) {
+                float s = mDictionary.getScore(key, value);
+                if (s > score) {
+                    text = value;
+                    score = s;
+                    user = true;
+                }
+            }
+        }
+        if (mainValues != null) {
+            for (String value : mainValues) {
+                float s = mDictionary.getScore(key, value);
+                if (s > score) {
+                    text = value;
+                    score = s;
+                    user = false;
+                }
+            }
+        }
+        if (text == null) {
+            return;
+        }
+        int cost = WORD_COST - LENGTH_BONUS * (end - start) - (int) (SCORE_BONUS * Math.min(score, MAX_SCORE));
+        if (user) {
+            cost -= USER_BONUS;
+        }
+        if (okuri.isEmpty()) {
+            relax(new Node(start, end, WORD, cost, text));
+        } else {
+            relax(new Node(start, end, OKURI, cost, text + okuri));
+        }
+    }
+}
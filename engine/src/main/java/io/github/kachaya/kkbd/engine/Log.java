@@ -0,0 +1,14 @@
+package io.github.kachaya.kkbd.engine;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// android.util.Logの代わり(AndroidではLogcatに出力される)
+final class Log {
+    private Log() {
+    }
+
+    static void e(String tag, String msg, Throwable tr) {
+        Logger.getLogger(tag).log(Level.SEVERE, msg, tr);
+    }
+}
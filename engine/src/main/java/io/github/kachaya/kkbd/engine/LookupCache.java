@@ -0,0 +1,59 @@
+package io.github.kachaya.kkbd.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 辞書検索結果のLRUキャッシュ
+// 見つからなかったことも記録する
+public class LookupCache {
+    private static final String[] MISS = new String[0];
+
+    private final LinkedHashMap<String, String[]> mMap;
+    private int mVersion;   // 無効化の回数(検索中に無効化された結果は記録しない)
+
+    public LookupCache(final int maxSize) {
+        mMap = new LinkedHashMap<String, String[]>(maxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public interface Loader {
+        String[] load(String key);
+    }
+
+    // キャッシュになければloaderで検索して記録する
+    public String[] get(String key, Loader loader) {
+        String[] values;
+        int version;
+        synchronized (mMap) {
+            values = mMap.get(key);
+            version = mVersion;
+        }
+        if (values == null) {
+            values = loader.load(key);
+            synchronized (mMap) {
+                if (version == mVersion) {
+                    mMap.put(key, values == null ? MISS : values);
+                }
+            }
+        }
+        return values == MISS ? null : values;
+    }
+
+    public void remove(String key) {
+        synchronized (mMap) {
+            mMap.remove(key);
+            mVersion++;
+        }
+    }
+
+    public void clear() {
+        synchronized (mMap) {
+            mMap.clear();
+            mVersion++;
+        }
+    }
+}
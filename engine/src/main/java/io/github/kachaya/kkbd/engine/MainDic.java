@@ -0,0 +1,463 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// 読み込み専用のメイン辞書ファイル
+// レコードをキーの昇順にBLOCK_RECORDS件ずつのブロックにまとめ、ブロックごとに圧縮している
+// 検索するときは各ブロックの先頭キーでブロックを決め、展開したブロックの中を二分探索する
+// 展開したブロックは少数だけLRUキャッシュに残す
+//
+// ファイル形式(ビッグエンディアン)
+//   int     MAGIC
+//   int     VERSION
+//   int     REVISION (辞書データの版、更新するたびに増やす)
+//   int     エントリ数 N
+//   int     ブロック数 B
+//   int[B+1] 各ブロックの開始位置(圧縮データ領域の先頭からのバイト単位オフセット)
+//   int[B]  各ブロックの展開後の長さ(char単位)
+//   int     先頭キー領域の長さ(char単位)
+//   char[]  先頭キー領域 { char キー長, char[] キー } * B
+//   byte[]  圧縮データ領域 (ブロックごとにDeflate(ヘッダなし)で圧縮)
+//
+// ブロックを展開したものはレコードの並び
+//   char    キー長
+//   char[]  キー
+//   char    候補数
+//   { char 候補長, char[] 候補 } * 候補数
+public class MainDic {
+    public static final int MAGIC = 0x4B4B4443;    // "KKDC"
+    public static final int VERSION = 3;
+    public static final int BLOCK_RECORDS = 32;     // 1ブロックのレコード数
+    static final int HEADER_SIZE = 20;
+    private static final int DEFAULT_CACHE_BLOCKS = 256;
+
+    // 展開したブロック
+    private static class Block {
+        final char[] chars;
+        final int[] records;    // 各レコードの開始位置
+
+        Block(char[] chars, int count) {
+            this.chars = chars;
+            records = new int[count];
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                records[i] = pos;
+                pos += 1 + chars[pos];          // キー
+                int num = chars[pos++];
+                for (int j = 0; j < num; j++) {
+                    pos += 1 + chars[pos];      // 候補
+                }
+            }
+        }
+    }
+
+    private final int mRevision;
+    private final int mCount;
+    private final int[] mBlockOffsets;
+    private final int[] mBlockLengths;
+    private final String[] mFirstKeys;
+    private final ByteBuffer mData;
+    private final Inflater mInflater = new Inflater(true);
+    private final LinkedHashMap<Integer, Block> mCache;
+
+    public interface KeyVisitor {
+        void visit(String key);
+    }
+
+    public MainDic(@NonNull File file) throws IOException {
+        this(map(file), DEFAULT_CACHE_BLOCKS);
+    }
+
+    public MainDic(@NonNull File file, int cacheBlocks) throws IOException {
+        this(map(file), cacheBlocks);
+    }
+
+    // bufはファイル全体(APKの中のassetをマップしたものなど)
+    // cacheBlocksは展開したブロックを残しておく数
+    public MainDic(@NonNull ByteBuffer buf, final int cacheBlocks) throws IOException {
+        buf = buf.duplicate();
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException("bad magic");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("unsupported version: " + buf.getInt(4));
+        }
+        try {
+            mRevision = buf.getInt(8);
+            mCount = buf.getInt(12);
+            int blocks = buf.getInt(16);
+            buf.position(HEADER_SIZE);
+            mBlockOffsets = new int[blocks + 1];
+            for (int i = 0; i <= blocks; i++) {
+                mBlockOffsets[i] = buf.getInt();
+            }
+            mBlockLengths = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                mBlockLengths[i] = buf.getInt();
+            }
+            int keyChars = buf.getInt();
+            mFirstKeys = new String[blocks];
+            char[] key = new char[Character.MAX_VALUE];
+            for (int i = 0; i < blocks; i++) {
+                int len = buf.getChar();
+                for (int j = 0; j < len; j++) {
+                    key[j] = buf.getChar();
+                }
+                mFirstKeys[i] = new String(key, 0, len);
+                keyChars -= 1 + len;
+            }
+            if (keyChars != 0) {
+                throw new IOException("broken block index");
+            }
+            mData = buf.slice();
+        } catch (RuntimeException e) {
+            throw new IOException("broken main dictionary", e);
+        }
+        mCache = new LinkedHashMap<Integer, Block>(cacheBlocks, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel fc = raf.getChannel();
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    // 辞書データの版
+    public int getRevision() {
+        return mRevision;
+    }
+
+    // ブロックを展開する(キャッシュにあればそれを使う)
+    private synchronized Block getBlock(int block) {
+        Block b = mCache.get(block);
+        if (b != null) {
+            return b;
+        }
+        b = inflateBlock(block, mInflater);
+        mCache.put(block, b);
+        return b;
+    }
+
+    private Block inflateBlock(int block, Inflater inflater) {
+        int start = mBlockOffsets[block];
+        byte[] compressed = new byte[mBlockOffsets[block + 1] - start];
+        ByteBuffer data = mData.duplicate();
+        data.position(start);
+        data.get(compressed);
+        byte[] bytes = new byte[mBlockLengths[block] * 2];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < bytes.length) {
+                int size = inflater.inflate(bytes, n, bytes.length - n);
+                if (size == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += size;
+            }
+            if (n != bytes.length) {
+                throw new IllegalStateException("truncated block: " + block);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("broken block: " + block, e);
+        }
+        char[] chars = new char[mBlockLengths[block]];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ((bytes[i * 2] & 0xff) << 8 | (bytes[i * 2 + 1] & 0xff));
+        }
+        return new Block(chars, Math.min(BLOCK_RECORDS, mCount - block * BLOCK_RECORDS));
+    }
+
+    // すべてのキーを昇順に渡す
+    // 展開したブロックはキャッシュに入れないので、検索で使っているブロックを追い出さない
+    public void scanKeys(@NonNull KeyVisitor visitor) {
+        Inflater inflater = new Inflater(true);
+        try {
+            for (int block = 0; block < mFirstKeys.length; block++) {
+                Block b = inflateBlock(block, inflater);
+                for (int rec : b.records) {
+                    visitor.visit(new String(b.chars, rec + 1, b.chars[rec]));
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // 先頭から順にレコードを読む
+    // 展開したブロックはキャッシュに入れず、ロックも取らないので、辞書全体を読んでも検索の邪魔をしない
+    // 使い終わったらclose()を呼ぶこと
+    public Cursor openCursor() {
+        return new Cursor();
+    }
+
+    public class Cursor implements Closeable {
+        private final Inflater mCursorInflater = new Inflater(true);
+        private int mIndex = -1;
+        private Block mBlock;
+
+        private Cursor() {
+        }
+
+        // 次のレコードに進む、なければfalse
+        public boolean next() {
+            if (mIndex + 1 >= mCount) {
+                mIndex = mCount;
+                return false;
+            }
+            mIndex++;
+            if (mIndex % BLOCK_RECORDS == 0) {
+                mBlock = inflateBlock(mIndex / BLOCK_RECORDS, mCursorInflater);
+            }
+            return true;
+        }
+
+        public String getKey() {
+            int rec = mBlock.records[mIndex % BLOCK_RECORDS];
+            return new String(mBlock.chars, rec + 1, mBlock.chars[rec]);
+        }
+
+        public String[] getValues() {
+            return readValues(mBlock, mBlock.records[mIndex % BLOCK_RECORDS]);
+        }
+
+        @Override
+        public void close() {
+            mCursorInflater.end();
+        }
+    }
+
+    // キーとレコードのキーを比較する
+    private static int compare(char[] chars, int rec, @NonNull CharSequence key) {
+        int recLen = chars[rec];
+        int keyLen = key.length();
+        int n = Math.min(recLen, keyLen);
+        for (int i = 0; i < n; i++) {
+            int d = chars[rec + 1 + i] - key.charAt(i);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return recLen - keyLen;
+    }
+
+    private static int compare(String s, @NonNull CharSequence key) {
+        int n = Math.min(s.length(), key.length());
+        for (int i = 0; i < n; i++) {
+            int d = s.charAt(i) - key.charAt(i);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return s.length() - key.length();
+    }
+
+    // キーのレコード番号、見つからなければ -(挿入位置 + 1)
+    public int find(@NonNull CharSequence key) {
+        // 先頭キーがkey以下の最後のブロック
+        int lo = 0;
+        int hi = mFirstKeys.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mFirstKeys[mid], key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid * BLOCK_RECORDS;
+            }
+        }
+        if (hi < 0) {
+            return -1;
+        }
+        int block = hi;
+        int base = block * BLOCK_RECORDS;
+        Block b = getBlock(block);
+        lo = 1;     // 先頭はkeyより小さい
+        hi = b.records.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(b.chars, b.records[mid], key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return base + mid;
+            }
+        }
+        return -(base + lo + 1);
+    }
+
+    public boolean contains(@NonNull CharSequence key) {
+        return find(key) >= 0;
+    }
+
+    // 候補検索
+    public String[] search(@NonNull CharSequence key) {
+        int index = find(key);
+        if (index < 0) {
+            return null;
+        }
+        return getValues(index);
+    }
+
+    // prefixで始まるキーがあるか
+    public boolean hasPrefix(@NonNull CharSequence prefix) {
+        int index = find(prefix);
+        if (index >= 0) {
+            return true;
+        }
+        index = -(index + 1);
+        if (index >= mCount) {
+            return false;
+        }
+        Block b = getBlock(index / BLOCK_RECORDS);
+        return startsWith(b.chars, b.records[index % BLOCK_RECORDS], prefix);
+    }
+
+    // prefixで始まる送りなしのキーを短い順(同じ長さならキー順)にlimit件まで列挙する
+    // 辞書に頻度がないので、キーの短さを順位の代わりにしている
+    // 調べるのはprefixの範囲の先頭からmaxScan件、またはdeadline(System.nanoTime())まで。
+    // 範囲がそれより広いと、キー順で先頭の一部だけから短いものを選ぶことになり、
+    // 後ろの方にあるもっと短いキーは返らない(同梱の辞書では2文字の読みの範囲は最大で約2800件)
+    // 返すのはレコード番号
+    public int[] predict(@NonNull CharSequence prefix, int limit, int maxScan, long deadline) {
+        // (キー長 << 32 | レコード番号)の最大ヒープで短いものをlimit件残す
+        long[] heap = new long[limit];
+        int size = 0;
+        int start = find(prefix);
+        if (start < 0) {
+            start = -(start + 1);
+        }
+        int end = Math.min(mCount, start + maxScan);
+        Block b = null;
+        for (int index = start; index < end; index++) {
+            if (((index - start) & 0xff) == 0xff && System.nanoTime() > deadline) {
+                break;
+            }
+            if (b == null || index % BLOCK_RECORDS == 0) {
+                b = getBlock(index / BLOCK_RECORDS);
+            }
+            int rec = b.records[index % BLOCK_RECORDS];
+            if (!startsWith(b.chars, rec, prefix)) {
+                break;
+            }
+            int len = b.chars[rec];
+            char last = b.chars[rec + len];
+            if (last >= 'a' && last <= 'z') {
+                continue;   // 送りあり
+            }
+            long item = ((long) len << 32) | index;
+            if (size < limit) {
+                heap[size] = item;
+                siftUp(heap, size++);
+            } else if (item < heap[0]) {
+                heap[0] = item;
+                siftDown(heap, size);
+            }
+        }
+        long[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted);
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (int) sorted[i];
+        }
+        return result;
+    }
+
+    private static boolean startsWith(char[] chars, int rec, CharSequence prefix) {
+        int len = prefix.length();
+        if (chars[rec] < len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (chars[rec + 1 + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] >= heap[i]) {
+                break;
+            }
+            long t = heap[parent];
+            heap[parent] = heap[i];
+            heap[i] = t;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int l = i * 2 + 1;
+            int r = l + 1;
+            int max = i;
+            if (l < size && heap[l] > heap[max]) {
+                max = l;
+            }
+            if (r < size && heap[r] > heap[max]) {
+                max = r;
+            }
+            if (max == i) {
+                break;
+            }
+            long t = heap[max];
+            heap[max] = heap[i];
+            heap[i] = t;
+            i = max;
+        }
+    }
+
+    public String getKey(int index) {
+        Block b = getBlock(index / BLOCK_RECORDS);
+        int rec = b.records[index % BLOCK_RECORDS];
+        return new String(b.chars, rec + 1, b.chars[rec]);
+    }
+
+    public String[] getValues(int index) {
+        Block b = getBlock(index / BLOCK_RECORDS);
+        return readValues(b, b.records[index % BLOCK_RECORDS]);
+    }
+
+    private static String[] readValues(Block b, int rec) {
+        int pos = rec + 1 + b.chars[rec];
+        int num = b.chars[pos++];
+        String[] values = new String[num];
+        for (int i = 0; i < num; i++) {
+            int len = b.chars[pos++];
+            values[i] = new String(b.chars, pos, len);
+            pos += len;
+        }
+        return values;
+    }
+}
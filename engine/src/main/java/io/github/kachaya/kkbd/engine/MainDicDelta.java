@@ -0,0 +1,189 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// メイン辞書の差分ファイル
+// 辞書全体を配らずに、ある版から次の版への追加・変更・削除だけを適用する
+//
+// ファイル形式(DataOutputStream)
+//   int     MAGIC
+//   int     VERSION
+//   int     元の版 (MainDic.getRevision())
+//   int     新しい版
+//   int     レコード数
+//   レコード: byte 操作, UTF キー, (OP_PUTなら) short 候補数, UTF 候補 * 候補数
+// レコードはキーの昇順に並べる
+public class MainDicDelta {
+    public static final int MAGIC = 0x4B4B4444;    // "KKDD"
+    public static final int VERSION = 1;
+    public static final byte OP_PUT = 1;        // 追加・変更(候補をすべて置き換える)
+    public static final byte OP_REMOVE = 2;     // 削除
+
+    private final int mBaseRevision;
+    private final int mRevision;
+
+    private MainDicDelta(int baseRevision, int revision) {
+        mBaseRevision = baseRevision;
+        mRevision = revision;
+    }
+
+    public int getBaseRevision() {
+        return mBaseRevision;
+    }
+
+    public int getRevision() {
+        return mRevision;
+    }
+
+    // 差分ファイルの版だけを読む
+    @NonNull
+    public static MainDicDelta readHeader(@NonNull File file) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return readHeader(dis);
+        }
+    }
+
+    private static MainDicDelta readHeader(DataInputStream dis) throws IOException {
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("bad magic");
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        return new MainDicDelta(dis.readInt(), dis.readInt());
+    }
+
+    // fromからtoへの差分を書く(辞書を作る側で使う)
+    public static void write(@NonNull MainDic from, @NonNull MainDic to, @NonNull File file) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < from.size() || j < to.size()) {
+            int c;
+            if (i == from.size()) {
+                c = 1;
+            } else if (j == to.size()) {
+                c = -1;
+            } else {
+                c = from.getKey(i).compareTo(to.getKey(j));
+            }
+            if (c < 0) {
+                writeRemove(out, from.getKey(i++));
+                count++;
+            } else if (c > 0) {
+                writePut(out, to.getKey(j), to.getValues(j++));
+                count++;
+            } else {
+                String[] values = to.getValues(j);
+                if (!Arrays.equals(from.getValues(i), values)) {
+                    writePut(out, to.getKey(j), values);
+                    count++;
+                }
+                i++;
+                j++;
+            }
+        }
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(from.getRevision());
+            dos.writeInt(to.getRevision());
+            dos.writeInt(count);
+            records.writeTo(dos);
+        }
+    }
+
+    private static void writePut(DataOutputStream dos, String key, String[] values) throws IOException {
+        dos.writeByte(OP_PUT);
+        dos.writeUTF(key);
+        dos.writeShort(values.length);
+        for (String value : values) {
+            dos.writeUTF(value);
+        }
+    }
+
+    private static void writeRemove(DataOutputStream dos, String key) throws IOException {
+        dos.writeByte(OP_REMOVE);
+        dos.writeUTF(key);
+    }
+
+    // baseに差分を適用した辞書をfileに書く
+    // 一時ファイルに書いてから置き換えるので、途中で失敗してもfileは元のまま
+    // baseは書いている間も検索に使ってよい(元のレコードはキャッシュを通さずに順に読む)
+    public static void apply(@NonNull MainDic base, @NonNull File delta, @NonNull File file) throws IOException {
+        MainDicWriter writer = new MainDicWriter();
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(delta)));
+             MainDic.Cursor cursor = base.openCursor()) {
+            MainDicDelta header = readHeader(dis);
+            if (header.mBaseRevision != base.getRevision()) {
+                throw new IOException("revision mismatch: " + header.mBaseRevision + " != " + base.getRevision());
+            }
+            writer.setRevision(header.mRevision);
+            int count = dis.readInt();
+            boolean hasBase = cursor.next();
+            String lastKey = null;
+            for (int n = 0; n < count; n++) {
+                byte op = dis.readByte();
+                String key = dis.readUTF();
+                String[] values = null;
+                if (op == OP_PUT) {
+                    values = new String[dis.readUnsignedShort()];
+                    for (int k = 0; k < values.length; k++) {
+                        values[k] = dis.readUTF();
+                    }
+                } else if (op != OP_REMOVE) {
+                    throw new IOException("unknown op: " + op);
+                }
+                if (lastKey != null && lastKey.compareTo(key) >= 0) {
+                    throw new IOException("key not in ascending order: " + key);
+                }
+                lastKey = key;
+                // keyより前の元のレコードはそのまま
+                for (; hasBase; hasBase = cursor.next()) {
+                    String baseKey = cursor.getKey();
+                    int c = baseKey.compareTo(key);
+                    if (c >= 0) {
+                        if (c == 0) {
+                            hasBase = cursor.next();    // 置き換え・削除
+                        }
+                        break;
+                    }
+                    writer.add(baseKey, cursor.getValues());
+                }
+                if (values != null) {
+                    writer.add(key, values);
+                }
+            }
+            for (; hasBase; hasBase = cursor.next()) {
+                writer.add(cursor.getKey(), cursor.getValues());
+            }
+        } catch (EOFException e) {
+            throw new IOException("truncated delta", e);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            writer.write(tmp);
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed: " + tmp);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+}
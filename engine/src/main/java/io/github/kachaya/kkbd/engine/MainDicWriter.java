@@ -0,0 +1,106 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+// メイン辞書ファイルの作成 (形式は MainDic を参照)
+// add() はキーの昇順に呼び出すこと
+public class MainDicWriter {
+    private int[] mOffsets = new int[1024];
+    private int mCount;
+    private final StringBuilder mChars = new StringBuilder();
+    private String mLastKey;
+    private int mRevision;
+
+    // 辞書データの版
+    public void setRevision(int revision) {
+        mRevision = revision;
+    }
+
+    public void add(@NonNull String key, @NonNull String[] values) {
+        if (mLastKey != null && mLastKey.compareTo(key) >= 0) {
+            throw new IllegalArgumentException("key not in ascending order: " + key);
+        }
+        if (mCount == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+        }
+        mOffsets[mCount++] = mChars.length();
+        appendChars(key);
+        appendLength(values.length);
+        for (String value : values) {
+            appendChars(value);
+        }
+        mLastKey = key;
+    }
+
+    private void appendLength(int len) {
+        if (len > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("too long: " + len);
+        }
+        mChars.append((char) len);
+    }
+
+    private void appendChars(String s) {
+        appendLength(s.length());
+        mChars.append(s);
+    }
+
+    public void write(@NonNull File file) throws IOException {
+        int blocks = (mCount + MainDic.BLOCK_RECORDS - 1) / MainDic.BLOCK_RECORDS;
+        int[] offsets = new int[blocks + 1];
+        int[] lengths = new int[blocks];
+        StringBuilder firstKeys = new StringBuilder();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] buf = new byte[64 * 1024];
+        try {
+            for (int i = 0; i < blocks; i++) {
+                int first = i * MainDic.BLOCK_RECORDS;
+                int start = mOffsets[first];
+                int end = first + MainDic.BLOCK_RECORDS < mCount ? mOffsets[first + MainDic.BLOCK_RECORDS] : mChars.length();
+                firstKeys.append(mChars, start, start + 1 + mChars.charAt(start));
+                lengths[i] = end - start;
+                ByteBuffer bytes = ByteBuffer.allocate(lengths[i] * 2);
+                bytes.asCharBuffer().put(mChars.substring(start, end));
+                deflater.reset();
+                deflater.setInput(bytes.array());
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int size = deflater.deflate(buf);
+                    data.write(buf, 0, size);
+                }
+                offsets[i + 1] = data.size();
+            }
+        } finally {
+            deflater.end();
+        }
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            dos.writeInt(MainDic.MAGIC);
+            dos.writeInt(MainDic.VERSION);
+            dos.writeInt(mRevision);
+            dos.writeInt(mCount);
+            dos.writeInt(blocks);
+            for (int offset : offsets) {
+                dos.writeInt(offset);
+            }
+            for (int length : lengths) {
+                dos.writeInt(length);
+            }
+            dos.writeInt(firstKeys.length());
+            dos.writeChars(firstKeys.toString());
+            data.writeTo(dos);
+            dos.flush();
+            fos.getFD().sync();
+        }
+    }
+}
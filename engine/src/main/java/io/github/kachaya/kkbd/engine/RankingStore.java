@@ -0,0 +1,258 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// 学習した(読み, 候補)ごとのスコア
+// 確定するたびに1加算し、時間とともに半減していく
+//
+// (読み, 候補)は64bitハッシュにして、オープンアドレス法の配列に保持する
+//
+// ファイル形式: int MAGIC, int 件数, { long ハッシュ, float スコア, int 更新時刻 } * 件数
+public class RankingStore {
+    private static final int MAGIC = 0x4B4B5253;   // "KKRS"
+    private static final float HALF_LIFE_HOURS = 24 * 14;   // 2週間で半分
+    private static final int MAX_ENTRIES = 32 * 1024;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 16;
+
+    private long[] mKeys = new long[INITIAL_CAPACITY];     // 0は空き
+    private float[] mScores = new float[INITIAL_CAPACITY];
+    private int[] mTimes = new int[INITIAL_CAPACITY];      // 更新時刻(時間単位)
+    private int mSize;
+    private boolean mDirty;
+
+    private static int now() {
+        return (int) (System.currentTimeMillis() / (60 * 60 * 1000));
+    }
+
+    // FNV-1a
+    private static long hash(String reading, String candidate) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < reading.length(); i++) {
+            h = (h ^ reading.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ '\t') * 0x100000001b3L;
+        for (int i = 0; i < candidate.length(); i++) {
+            h = (h ^ candidate.charAt(i)) * 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private static float decay(float score, int elapsedHours) {
+        if (elapsedHours <= 0) {
+            return score;
+        }
+        return (float) (score * Math.pow(0.5, elapsedHours / HALF_LIFE_HOURS));
+    }
+
+    private int slot(long key) {
+        int mask = mKeys.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while (mKeys[i] != 0 && mKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // 現在のスコア
+    public synchronized float getScore(@NonNull String reading, @NonNull String candidate) {
+        int i = slot(hash(reading, candidate));
+        if (mKeys[i] == 0) {
+            return 0;
+        }
+        return decay(mScores[i], now() - mTimes[i]);
+    }
+
+    // 確定した候補のスコアを上げる
+    public synchronized void learn(@NonNull String reading, @NonNull String candidate) {
+        long key = hash(reading, candidate);
+        int now = now();
+        int i = slot(key);
+        if (mKeys[i] == 0) {
+            if ((mSize + 1) * 2 > mKeys.length) {
+                if (mSize >= MAX_ENTRIES) {
+                    prune(now);
+                }
+                if ((mSize + 1) * 2 > mKeys.length) {
+                    rehash(mKeys.length * 2);
+                }
+                i = slot(key);
+            }
+            mKeys[i] = key;
+            mScores[i] = 1;
+            mSize++;
+        } else {
+            mScores[i] = decay(mScores[i], now - mTimes[i]) + 1;
+        }
+        mTimes[i] = now;
+        mDirty = true;
+    }
+
+    // 削除された候補のスコアを消す
+    public synchronized void forget(@NonNull String reading, @NonNull String candidate) {
+        int i = slot(hash(reading, candidate));
+        if (mKeys[i] != 0) {
+            mScores[i] = 0;
+            mDirty = true;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        float[] scores = mScores;
+        int[] times = mTimes;
+        mKeys = new long[capacity];
+        mScores = new float[capacity];
+        mTimes = new int[capacity];
+        mSize = 0;
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != 0 && scores[j] > 0) {
+                int i = slot(keys[j]);
+                mKeys[i] = keys[j];
+                mScores[i] = scores[j];
+                mTimes[i] = times[j];
+                mSize++;
+            }
+        }
+    }
+
+    // スコアの低い順に半分を捨てる
+    // 同じスコアが多くても(1回だけ学習したものなど)捨てるのはちょうど半分にする
+    private void prune(int now) {
+        // 上位32bitがスコア(0以上のfloatはビット列のまま大小を比べられる)、下位32bitが位置
+        long[] ranks = new long[mSize];
+        int n = 0;
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] != 0) {
+                mScores[i] = decay(mScores[i], now - mTimes[i]);
+                mTimes[i] = now;
+                ranks[n++] = (long) Float.floatToIntBits(mScores[i]) << 32 | i;
+            }
+        }
+        Arrays.sort(ranks, 0, n);
+        for (int j = 0; j < n / 2; j++) {
+            mScores[(int) ranks[j]] = 0;
+        }
+        rehash(mKeys.length);
+    }
+
+    public synchronized void load(@NonNull File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("bad magic: " + file);
+            }
+            int count = dis.readInt();
+            if (count < 0 || (long) count * RECORD_SIZE != file.length() - HEADER_SIZE) {
+                throw new IOException("broken file: " + file);
+            }
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < count * 2) {
+                capacity *= 2;
+            }
+            mKeys = new long[capacity];
+            mScores = new float[capacity];
+            mTimes = new int[capacity];
+            mSize = 0;
+            for (int j = 0; j < count; j++) {
+                long key = dis.readLong();
+                float score = dis.readFloat();
+                int time = dis.readInt();
+                int i = slot(key);
+                if (mKeys[i] == 0) {
+                    mSize++;
+                }
+                mKeys[i] = key;
+                mScores[i] = score;
+                mTimes[i] = time;
+            }
+        }
+        mDirty = false;
+    }
+
+    // 変更があれば一時ファイルに書いてから置き換える
+    public void save(@NonNull File file) throws IOException {
+        Snapshot snapshot = snapshot();
+        if (snapshot != null) {
+            snapshot.write(file);
+        }
+    }
+
+    // 今の内容の複製、変更がなければnull
+    // 書き込み中も学習できるように、複製を取ってから書く
+    // ジャーナルと合わせるときは、ジャーナルの切り替えと同じロックの中で取ること
+    public synchronized Snapshot snapshot() {
+        if (!mDirty) {
+            return null;
+        }
+        long[] keys = new long[mSize];
+        float[] scores = new float[mSize];
+        int[] times = new int[mSize];
+        int count = 0;
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] != 0 && mScores[i] > 0) {
+                keys[count] = mKeys[i];
+                scores[count] = mScores[i];
+                times[count] = mTimes[i];
+                count++;
+            }
+        }
+        mDirty = false;
+        return new Snapshot(keys, scores, times, count);
+    }
+
+    public class Snapshot {
+        private final long[] mKeys;
+        private final float[] mScores;
+        private final int[] mTimes;
+        private final int mCount;
+
+        private Snapshot(long[] keys, float[] scores, int[] times, int count) {
+            mKeys = keys;
+            mScores = scores;
+            mTimes = times;
+            mCount = count;
+        }
+
+        // 一時ファイルに書いてから置き換える
+        public void write(@NonNull File file) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+                    dos.writeInt(MAGIC);
+                    dos.writeInt(mCount);
+                    for (int i = 0; i < mCount; i++) {
+                        dos.writeLong(mKeys[i]);
+                        dos.writeFloat(mScores[i]);
+                        dos.writeInt(mTimes[i]);
+                    }
+                    dos.flush();
+                    fos.getFD().sync();
+                }
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("rename failed: " + tmp);
+                }
+            } catch (IOException e) {
+                tmp.delete();
+                synchronized (RankingStore.this) {
+                    mDirty = true;
+                }
+                throw e;
+            }
+        }
+    }
+}
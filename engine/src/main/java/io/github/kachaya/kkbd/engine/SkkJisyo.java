@@ -0,0 +1,205 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+
+// SKK辞書形式(SKK-JISYO)の読み書き
+//
+//   ;; okuri-ari entries.
+//   かk /書/掛/
+//   ;; okuri-nasi entries.
+//   かんじ /漢字/幹事;注釈/
+//
+// 1行ずつ読み書きするので、ファイル全体をメモリに置かない
+public class SkkJisyo {
+    public static final String OKURI_ARI = ";; okuri-ari entries.";
+    public static final String OKURI_NASI = ";; okuri-nasi entries.";
+    public static final String CODING_UTF8 = ";; -*- mode: fundamental; coding: utf-8 -*-";
+    private static final int DETECT_SIZE = 64 * 1024;
+    private static final Charset EUC_JP = Charset.forName("EUC-JP");
+
+    private final BufferedReader mReader;
+    private String mKey;
+    private String[] mValues;
+
+    // 文字コードは先頭から判定する
+    public SkkJisyo(@NonNull InputStream in) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(in);
+        mReader = new BufferedReader(new InputStreamReader(bis, detectCharset(bis)));
+    }
+
+    // 次の見出しを読む、終わりならfalse
+    // 候補のない行とコメントは読み飛ばす
+    public boolean next() throws IOException {
+        for (String line = mReader.readLine(); line != null; line = mReader.readLine()) {
+            if (line.isEmpty() || line.startsWith(";")) {
+                continue;
+            }
+            int index = line.indexOf(" /");
+            if (index <= 0) {
+                continue;
+            }
+            String key = line.substring(0, index);
+            if (key.contains("う゛")) {
+                key = key.replace("う゛", "\u3094"); // "ゔ"
+            }
+            String[] values = parseValues(line.substring(index + 2));
+            if (values.length == 0) {
+                continue;
+            }
+            mKey = key;
+            mValues = values;
+            return true;
+        }
+        return false;
+    }
+
+    public String getKey() {
+        return mKey;
+    }
+
+    public String[] getValues() {
+        return mValues;
+    }
+
+    // "候補1/候補2;注釈/[く/書/]/" から候補を取り出す
+    // 注釈と送り仮名ごとの候補([...])は捨てる
+    private static String[] parseValues(String s) {
+        ArrayList<String> list = new ArrayList<>();
+        boolean okuri = false;
+        for (String value : s.split("/")) {
+            if (okuri) {
+                okuri = !value.equals("]");
+                continue;
+            }
+            if (value.startsWith("[")) {
+                okuri = true;
+                continue;
+            }
+            int index = value.indexOf(';');
+            if (index >= 0) {
+                value = value.substring(0, index);
+            }
+            if (value.startsWith("(concat ")) {
+                value = parseConcat(value);
+            }
+            if (!value.isEmpty() && !list.contains(value)) {
+                list.add(value);
+            }
+        }
+        return list.toArray(new String[0]);
+    }
+
+    // (concat "a\057b" "c") の文字列をつなげる、\nnn は8進数の文字コード
+    private static String parseConcat(String s) {
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted) {
+                continue;
+            } else if (c == '\\' && i + 1 < s.length()) {
+                int end = i + 1;
+                while (end < s.length() && end < i + 4 && s.charAt(end) >= '0' && s.charAt(end) <= '7') {
+                    end++;
+                }
+                if (end > i + 1) {
+                    sb.append((char) Integer.parseInt(s.substring(i + 1, end), 8));
+                    i = end - 1;
+                } else {
+                    sb.append(s.charAt(++i));
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // 送りありの見出し("かk"のように末尾が英小文字、"abc"のような英字の見出しは送りなし)
+    public static boolean isOkuriAri(@NonNull String key) {
+        int len = key.length();
+        if (len < 2) {
+            return false;
+        }
+        char first = key.charAt(0);
+        char last = key.charAt(len - 1);
+        return last >= 'a' && last <= 'z' && !(first >= 'a' && first <= 'z');
+    }
+
+    // 1行書く
+    public static void write(@NonNull Writer writer, @NonNull String key, @NonNull String[] values) throws IOException {
+        writer.write(key);
+        writer.write(" /");
+        for (String value : values) {
+            writer.write(escape(value));
+            writer.write('/');
+        }
+        writer.write('\n');
+    }
+
+    // '/'と';'を含む候補は(concat ...)で表す
+    private static String escape(String value) {
+        if (value.indexOf('/') < 0 && value.indexOf(';') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder("(concat \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '/' || c == ';' || c == '"' || c == '\\') {
+                sb.append(String.format(Locale.US, "\\%03o", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append("\")").toString();
+    }
+
+    // 文字コードを判定する(先頭の coding: 指定、なければUTF-8として読めるかどうか)
+    // 判定できなければSKK-JISYOの標準のEUC-JP
+    private static Charset detectCharset(BufferedInputStream in) throws IOException {
+        in.mark(DETECT_SIZE);
+        byte[] head = new byte[DETECT_SIZE];
+        int n = 0;
+        while (n < head.length) {
+            int size = in.read(head, n, head.length - n);
+            if (size < 0) {
+                break;
+            }
+            n += size;
+        }
+        in.reset();
+        String ascii = new String(head, 0, Math.min(n, 256), StandardCharsets.ISO_8859_1).toLowerCase(Locale.US);
+        int eol = ascii.indexOf('\n');
+        String first = eol >= 0 ? ascii.substring(0, eol) : ascii;
+        if (first.contains("coding: utf-8") || first.contains("coding:utf-8")) {
+            return StandardCharsets.UTF_8;
+        }
+        if (first.contains("coding: euc-") || first.contains("coding:euc-")) {   // euc-jp, euc-jis-2004
+            return EUC_JP;
+        }
+        // 途中で切れた末尾の文字は不正としない
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CoderResult result = decoder.decode(ByteBuffer.wrap(head, 0, n), CharBuffer.allocate(n), n < head.length);
+        return result.isError() ? EUC_JP : StandardCharsets.UTF_8;
+    }
+}
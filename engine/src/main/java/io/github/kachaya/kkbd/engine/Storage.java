@@ -0,0 +1,18 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// 辞書ファイルの置き場所
+public interface Storage {
+    // 書き込み可能な領域のファイル
+    @NonNull
+    File getFile(@NonNull String name);
+
+    // 同梱の読み込み専用データをコピーせずにメモリにマップする(圧縮せずに格納されていること)
+    @NonNull
+    ByteBuffer mapAsset(@NonNull String name) throws IOException;
+}
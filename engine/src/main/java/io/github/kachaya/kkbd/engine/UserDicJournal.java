@@ -0,0 +1,116 @@
+package io.github.kachaya.kkbd.engine;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// ユーザ辞書の学習内容を記録する追記専用ファイル
+// ユーザ辞書をコミットするまでの変更を失わないためのもの
+//
+// レコード: byte 操作, UTF キー, UTF 語句
+//
+// コミット前に rotate() で記録中のファイルを .old に切り替え、
+// コミットが終わったら discardOld() で消す。起動時は .old、記録中の順に再生する。
+public class UserDicJournal {
+    public static final byte OP_ADD = 1;
+    public static final byte OP_DELETE = 2;
+
+    public interface Replayer {
+        void replay(byte op, String key, String value);
+    }
+
+    private final File mFile;
+    private final File mOldFile;
+    private DataOutputStream mOut;
+
+    public UserDicJournal(@NonNull File file) {
+        mFile = file;
+        mOldFile = new File(file.getPath() + ".old");
+    }
+
+    // 記録されている操作を順に再生する、途中で切れたレコードは捨てる
+    public synchronized void replay(@NonNull Replayer replayer) throws IOException {
+        replay(mOldFile, replayer);
+        replay(mFile, replayer);
+    }
+
+    private static void replay(File file, Replayer replayer) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte op;
+                String key;
+                String value;
+                try {
+                    op = dis.readByte();
+                    key = dis.readUTF();
+                    value = dis.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                replayer.replay(op, key, value);
+            }
+        }
+    }
+
+    public synchronized void append(byte op, @NonNull String key, @NonNull String value) throws IOException {
+        if (mOut == null) {
+            mOut = new DataOutputStream(new FileOutputStream(mFile, true));
+        }
+        mOut.writeByte(op);
+        mOut.writeUTF(key);
+        mOut.writeUTF(value);
+        mOut.flush();
+    }
+
+    // 記録中のファイルを .old に切り替える
+    // 前回のコミットが失敗して .old が残っていれば後ろに継ぎ足す
+    public synchronized void rotate() throws IOException {
+        if (mOut != null) {
+            mOut.close();
+            mOut = null;
+        }
+        if (!mFile.exists()) {
+            return;
+        }
+        if (mOldFile.exists()) {
+            try (InputStream is = new FileInputStream(mFile);
+                 OutputStream os = new FileOutputStream(mOldFile, true)) {
+                byte[] buf = new byte[4 * 1024];
+                int size;
+                while ((size = is.read(buf)) > 0) {
+                    os.write(buf, 0, size);
+                }
+            }
+            mFile.delete();
+        } else if (!mFile.renameTo(mOldFile)) {
+            throw new IOException("rename failed: " + mFile);
+        }
+    }
+
+    // コミット済みの .old を消す
+    public synchronized void discardOld() {
+        mOldFile.delete();
+    }
+
+    // すべて消す
+    public synchronized void clear() throws IOException {
+        if (mOut != null) {
+            mOut.close();
+            mOut = null;
+        }
+        mFile.delete();
+        mOldFile.delete();
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.kachaya.kkbd.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import io.github.kachaya.kkbd.engine.Dictionary;
+import io.github.kachaya.kkbd.engine.FileStorage;
+import io.github.kachaya.kkbd.engine.MainDic;
+
+// ベンチマークで使う辞書と入力
+final class BenchmarkData {
+    // 同梱のメイン辞書(assets/main_dic.dic)の場所、作業ディレクトリからの相対パス
+    static final String ASSETS_DIR = System.getProperty("kkbd.assets", "app/src/main/assets");
+    static final long SEED = 12345;
+
+    // 変換する文
+    static final String[] SENTENCES = {
+            "わたしはがっこうにいきます",
+            "きょうはいいてんきですね",
+            "かれはほんをよんでいる",
+            "でんしゃにのってかいしゃへいく",
+            "にほんごのへんかんはむずかしいけれどもがんばってじっそうしましょうとおもいます",
+            "あしたはあめがふるらしいのでかさをもっていきます",
+    };
+
+    private BenchmarkData() {
+    }
+
+    // 空の作業ディレクトリに辞書を作る
+    static Dictionary openDictionary(File dir) {
+        return new Dictionary(new FileStorage(dir, new File(ASSETS_DIR)));
+    }
+
+    static File createTempDir() throws IOException {
+        return Files.createTempDirectory("kkbd-jmh").toFile();
+    }
+
+    static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // メイン辞書から無作為に選んだ送りなしのキー
+    static String[] sampleKeys(int count) throws IOException {
+        MainDic mainDic = new MainDic(new File(ASSETS_DIR, "main_dic.dic"));
+        Random random = new Random(SEED);
+        ArrayList<String> keys = new ArrayList<>();
+        while (keys.size() < count) {
+            String key = mainDic.getKey(random.nextInt(mainDic.size()));
+            char ch = key.charAt(key.length() - 1);
+            if (ch < 'a' || ch > 'z') {
+                keys.add(key);
+            }
+        }
+        return keys.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.kachaya.kkbd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import io.github.kachaya.kkbd.engine.CandidateList;
+import io.github.kachaya.kkbd.engine.Clause;
+import io.github.kachaya.kkbd.engine.ConversionEngine;
+import io.github.kachaya.kkbd.engine.Dictionary;
+
+// 変換(スペースキーでの文節変換、入力中の提案、ライブ変換)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+    private File mDir;
+    private Dictionary mDictionary;
+    private ConversionEngine mEngine;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDir = BenchmarkData.createTempDir();
+        mDictionary = BenchmarkData.openDictionary(mDir);
+        mEngine = new ConversionEngine(mDictionary);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mDictionary.close();
+        mDictionary.awaitClose();
+        BenchmarkData.deleteDir(mDir);
+    }
+
+    private String nextSentence() {
+        mIndex = (mIndex + 1) % BenchmarkData.SENTENCES.length;
+        return BenchmarkData.SENTENCES[mIndex];
+    }
+
+    // 文全体の変換
+    @Benchmark
+    public ArrayList<Clause> convert() {
+        return mEngine.convert(nextSentence(), ConversionEngine.MODE_HIRAGANA, 0);
+    }
+
+    // 1文字ずつ入力したときの提案
+    @Benchmark
+    public void suggest(Blackhole bh) {
+        String sentence = nextSentence();
+        for (int i = 1; i <= sentence.length(); i++) {
+            CandidateList candidates = mEngine.suggest(sentence.subSequence(0, i), ConversionEngine.MODE_HIRAGANA);
+            bh.consume(candidates);
+        }
+    }
+
+    // 1文字ずつ入力したときのライブ変換
+    @Benchmark
+    public void liveConvert(Blackhole bh) {
+        String sentence = nextSentence();
+        for (int i = 1; i <= sentence.length(); i++) {
+            bh.consume(mEngine.liveConvert(sentence.subSequence(0, i), ConversionEngine.MODE_HIRAGANA));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.kachaya.kkbd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.github.kachaya.kkbd.engine.Converter;
+
+// かなの変換
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConverterBenchmark {
+    private final String mHiragana = BenchmarkData.SENTENCES[4];
+    private final String mKatakana = Converter.toWideKatakana(mHiragana);
+    private final char[] mDakuten = {'か', 'さ', 'た', 'は', 'う', 'あ', 'ん'};
+
+    @Benchmark
+    public String toWideKatakana() {
+        return Converter.toWideKatakana(mHiragana);
+    }
+
+    @Benchmark
+    public String toWideHiragana() {
+        return Converter.toWideHiragana(mKatakana);
+    }
+
+    // Latticeと同じく、読みの各位置を送り仮名として調べる
+    @Benchmark
+    public void getOkuriAscii(Blackhole bh) {
+        for (int i = 0; i < mHiragana.length(); i++) {
+            bh.consume(Converter.getOkuriLength(mHiragana, i));
+            bh.consume(Converter.getOkuriAscii(mHiragana, i));
+        }
+    }
+
+    @Benchmark
+    public void combineDakuten(Blackhole bh) {
+        for (char ch : mDakuten) {
+            bh.consume(Converter.combineDakuten(ch));
+            bh.consume(Converter.combineHandakuten(ch));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.kachaya.kkbd.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import io.github.kachaya.kkbd.engine.Dictionary;
+
+// 辞書検索
+// メイン辞書は同梱のSKK辞書、ユーザ辞書はその読みから作った userDicSize 件の合成データ
+//
+// 検索キャッシュ(1024件)に収まる範囲を繰り返すもの(Hot)と、収まらない範囲を巡回するもの(Cold)を測る
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DictionaryBenchmark {
+    private static final int HOT_KEYS = 256;
+    private static final int COLD_KEYS = 64 * 1024;
+
+    @Param({"1000", "10000", "100000"})
+    public int userDicSize;
+
+    private File mDir;
+    private Dictionary mDictionary;
+    private String[] mMainKeys;
+    private String[] mUserKeys;
+    private String[] mPrefixes;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDir = BenchmarkData.createTempDir();
+        mDictionary = BenchmarkData.openDictionary(mDir);
+        mMainKeys = BenchmarkData.sampleKeys(COLD_KEYS);
+        mUserKeys = new String[userDicSize];
+        for (int i = 0; i < userDicSize; i++) {
+            // 同じ読みに複数の語句を登録したものも混ぜる
+            String key = mMainKeys[i % mMainKeys.length];
+            mUserKeys[i] = key;
+            mDictionary.add(key, "語句" + i);
+        }
+        mDictionary.commit();
+        mPrefixes = new String[HOT_KEYS];
+        for (int i = 0; i < HOT_KEYS; i++) {
+            String key = mUserKeys[(i * 7919) % userDicSize];
+            mPrefixes[i] = key.substring(0, Math.min(2, key.length()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mDictionary.close();
+        mDictionary.awaitClose();
+        BenchmarkData.deleteDir(mDir);
+    }
+
+    private int next(int bound) {
+        mIndex = (mIndex + 1) % bound;
+        return mIndex;
+    }
+
+    @Benchmark
+    public String[] searchMainDicHot() {
+        return mDictionary.searchMainDic(mMainKeys[next(HOT_KEYS)]);
+    }
+
+    @Benchmark
+    public String[] searchMainDicCold() {
+        return mDictionary.searchMainDic(mMainKeys[next(COLD_KEYS)]);
+    }
+
+    @Benchmark
+    public String[] searchUserDicHot() {
+        return mDictionary.searchUserDic(mUserKeys[next(Math.min(HOT_KEYS, userDicSize))]);
+    }
+
+    @Benchmark
+    public String[] searchUserDicCold() {
+        return mDictionary.searchUserDic(mUserKeys[next(userDicSize)]);
+    }
+
+    @Benchmark
+    public ArrayList<String> getUserKeys() {
+        return mDictionary.getUserKeys(mPrefixes[next(HOT_KEYS)]);
+    }
+}
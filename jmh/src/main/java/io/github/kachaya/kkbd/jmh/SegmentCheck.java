@@ -0,0 +1,89 @@
+package io.github.kachaya.kkbd.jmh;
+
+import java.io.File;
+
+import io.github.kachaya.kkbd.engine.Dictionary;
+import io.github.kachaya.kkbd.engine.Lattice;
+
+// 文節区切りの確認
+// 例文をLatticeで区切り、期待する区切りと違うものを表示する(Latticeのコストを変えたときに使う)
+//
+// 使い方: SegmentCheck [-v]
+//   -v    期待どおりの文も表示する
+public class SegmentCheck {
+    // 期待する区切り(「|」で区切る)
+    // 付属語は前の文節に含め、語(かなで書く語を含む)から新しい文節を始める
+    static final String[] SEGMENTS = {
+            "わたしは|がっこうに|いきます",
+            "きょうは|いい|てんきですね",
+            "かれは|ほんを|よんでいる",
+            "でんしゃに|のって|かいしゃへ|いく",
+            "にほんごの|へんかんは|むずかしいけれども|がんばって|じっそうしましょうと|おもいます",
+            "あしたは|あめが|ふるらしいので|かさを|もっていきます",
+            "きのう|ともだちと|えいがを|みました",
+            "この|みせの|らーめんは|とても|おいしい",
+            "かいぎは|さんじから|はじまります",
+            "しゅくだいを|わすれて|せんせいに|おこられた",
+            "まいにち|あさごはんを|たべます",
+            "えきまで|あるいて|じゅっぷんです",
+            "らいしゅうの|よていを|おしえてください",
+            "へやの|でんきを|けしてください",
+            "あたらしい|くるまを|かいたい",
+            "かのじょは|うたが|じょうずです",
+            "としょかんで|ほんを|かりました",
+            "さむいので|まどを|しめてください",
+            "にもつが|おもくて|たいへんだ",
+            "でんわばんごうを|かくにんします",
+            "ははは|だいどころで|りょうりをしている",
+            "おとうとは|さっかーが|すきです",
+            "ここで|まっていてください",
+            "なつやすみに|うみへ|いきたい",
+            "あさから|あたまが|いたい",
+            "はしを|わたって|みぎに|まがる",
+            "その|ほんは|どこで|かいましたか",
+            "ねこが|にわで|ねています",
+            "みずを|のみたい",
+            "かぜを|ひいて|がっこうを|やすんだ",
+            "ここでは|たばこを|すわないでください",
+            "かれには|じかんがない",
+            "これは|ほんではない",
+            "あしたも|あめでしょう",
+            "えきへの|みちを|ききました",
+            "わたしも|いきたいと|おもいます",
+    };
+
+    public static void main(String[] args) throws Exception {
+        boolean verbose = args.length > 0 && args[0].equals("-v");
+        File dir = BenchmarkData.createTempDir();
+        Dictionary dictionary = BenchmarkData.openDictionary(dir);
+        try {
+            Lattice lattice = new Lattice(dictionary);
+            int ok = 0;
+            for (String expected : SEGMENTS) {
+                StringBuilder readings = new StringBuilder();
+                StringBuilder texts = new StringBuilder();
+                for (Lattice.Segment segment : lattice.segment(expected.replace("|", ""))) {
+                    if (readings.length() > 0) {
+                        readings.append('|');
+                        texts.append('|');
+                    }
+                    readings.append(segment.reading);
+                    texts.append(segment.text != null ? segment.text : segment.reading);
+                }
+                if (expected.contentEquals(readings)) {
+                    ok++;
+                    if (verbose) {
+                        System.out.println("OK " + texts);
+                    }
+                } else {
+                    System.out.println("NG " + texts + "  (" + expected + ")");
+                }
+            }
+            System.out.println(ok + "/" + SEGMENTS.length);
+        } finally {
+            dictionary.close();
+            dictionary.awaitClose();
+            BenchmarkData.deleteDir(dir);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package io.github.kachaya.kkbd.jmh;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import io.github.kachaya.kkbd.engine.CandidateList;
+import io.github.kachaya.kkbd.engine.Clause;
+import io.github.kachaya.kkbd.engine.ConversionEngine;
+import io.github.kachaya.kkbd.engine.Converter;
+import io.github.kachaya.kkbd.engine.Dictionary;
+import io.github.kachaya.kkbd.engine.KeyTrace;
+
+// キー入力の記録(KeyTrace)を再生して、イベントごとの処理時間の分布を表示する
+//
+// InputServiceと同じ順序で変換エンジンを呼ぶ。画面表示と変換の取り消しは行わないので、
+// 各イベントで変換が最後まで終わるまでの時間になる。
+//
+// 使い方: TraceReplay [-live] [-dir 作業ディレクトリ] [-warmup 回数] [-repeat 回数] 記録ファイル
+//   -live    記録時の設定にかかわらずライブ変換する
+//   -dir     端末のfilesディレクトリの写しを指定すると、そのユーザ辞書で再生する
+public class TraceReplay {
+    // InputServiceの入力モード
+    private static final int INPUT_MODE_HIRAGANA_WIDE = 2;
+    private static final int INPUT_MODE_KATAKANA_WIDE = 3;
+
+    private final Dictionary mDictionary;
+    private final ConversionEngine mEngine;
+    private final boolean mForceLive;
+    private final long[][] mSamples = new long[KeyTrace.EVENT_NUM][];
+    private final int[] mSampleNum = new int[KeyTrace.EVENT_NUM];
+    private boolean mMeasure;
+
+    private final StringBuilder mComposing = new StringBuilder();
+    private CandidateList mCandidates = new CandidateList();
+    private final ArrayList<Clause> mClauses = new ArrayList<>();
+    private int mClauseIndex;
+    private int mCandidateIndex = -1;   // 変換中でなければ-1
+    private int mInputMode;
+    private boolean mLive;
+
+    private TraceReplay(Dictionary dictionary, boolean forceLive) {
+        mDictionary = dictionary;
+        mEngine = new ConversionEngine(dictionary);
+        mForceLive = forceLive;
+        for (int i = 0; i < KeyTrace.EVENT_NUM; i++) {
+            mSamples[i] = new long[1024];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean live = false;
+        File dir = null;
+        int warmup = 1;
+        int repeat = 1;
+        File file = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-live":
+                    live = true;
+                    break;
+                case "-dir":
+                    dir = new File(args[++i]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "-repeat":
+                    repeat = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    file = new File(args[i]);
+                    break;
+            }
+        }
+        if (file == null) {
+            System.err.println("usage: TraceReplay [-live] [-dir dir] [-warmup n] [-repeat n] key_trace.bin");
+            System.exit(2);
+        }
+
+        // 記録を先に読み込んでおき、再生中にファイルを読まないようにする
+        ArrayList<int[]> events = new ArrayList<>();
+        KeyTrace.replay(file, (event, time, arg) -> events.add(new int[]{event, arg}));
+
+        boolean temporary = dir == null;
+        if (temporary) {
+            dir = BenchmarkData.createTempDir();
+        }
+        Dictionary dictionary = BenchmarkData.openDictionary(dir);
+        try {
+            TraceReplay replay = new TraceReplay(dictionary, live);
+            for (int i = 0; i < warmup + repeat; i++) {
+                replay.mMeasure = i >= warmup;
+                replay.reset();
+                for (int[] event : events) {
+                    replay.dispatch(event[0], event[1]);
+                }
+            }
+            replay.report(events.size());
+        } finally {
+            dictionary.close();
+            dictionary.awaitClose();
+            if (temporary) {
+                BenchmarkData.deleteDir(dir);
+            }
+        }
+    }
+
+    private void dispatch(int event, int arg) {
+        long start = System.nanoTime();
+        switch (event) {
+            case KeyTrace.EVENT_START:
+                mLive = mForceLive || arg != 0;
+                break;
+            case KeyTrace.EVENT_MODE:
+                reset();
+                mInputMode = arg;
+                break;
+            case KeyTrace.EVENT_CHAR:
+                processChar((char) arg);
+                break;
+            case KeyTrace.EVENT_SPACE:
+                handleSpace();
+                break;
+            case KeyTrace.EVENT_BACKSPACE:
+                handleBackspace();
+                break;
+            case KeyTrace.EVENT_ENTER:
+                handleEnter();
+                break;
+            case KeyTrace.EVENT_CANDIDATE:
+                clickCandidate(arg);
+                break;
+            default:
+                break;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (mMeasure) {
+            if (mSampleNum[event] == mSamples[event].length) {
+                mSamples[event] = Arrays.copyOf(mSamples[event], mSamples[event].length * 2);
+            }
+            mSamples[event][mSampleNum[event]++] = elapsed;
+        }
+    }
+
+    private int getMode() {
+        if (mInputMode == INPUT_MODE_KATAKANA_WIDE) {
+            return ConversionEngine.MODE_KATAKANA;
+        }
+        return ConversionEngine.MODE_HIRAGANA;
+    }
+
+    private void processChar(char ch) {
+        if (mInputMode != INPUT_MODE_HIRAGANA_WIDE && mInputMode != INPUT_MODE_KATAKANA_WIDE) {
+            return;
+        }
+        if (mCandidateIndex >= 0) {
+            commitCandidate();
+            reset();
+        }
+        int len = mComposing.length();
+        if (len > 0) {
+            char c = 0;
+            if (ch == '゛') {
+                c = Converter.combineDakuten(mComposing.charAt(len - 1));
+            } else if (ch == '゜') {
+                c = Converter.combineHandakuten(mComposing.charAt(len - 1));
+            }
+            if (c != 0) {
+                mComposing.deleteCharAt(len - 1);
+                ch = c;
+            }
+        }
+        mComposing.append(ch);
+        updateSuggestion();
+    }
+
+    private void handleSpace() {
+        if (mComposing.length() == 0) {
+            return;
+        }
+        if (mCandidateIndex >= 0) {
+            Clause clause = mClauses.get(mClauseIndex);
+            if (clause.candidates.size() > 0) {
+                clause.index = (clause.index + 1) % clause.candidates.size();
+                mCandidateIndex = clause.index;
+            }
+        } else {
+            resetCandidate();
+            mClauses.addAll(mEngine.convert(mComposing, getMode(), 0));
+            mCandidateIndex = mClauses.isEmpty() ? -1 : mClauses.get(0).index;
+        }
+    }
+
+    private void handleBackspace() {
+        int len = mComposing.length();
+        if (len == 0) {
+            return;
+        }
+        if (mCandidateIndex >= 0) {
+            updateSuggestion();
+        } else {
+            mComposing.deleteCharAt(len - 1);
+            if (mComposing.length() == 0) {
+                reset();
+            } else {
+                updateSuggestion();
+            }
+        }
+    }
+
+    private void handleEnter() {
+        if (mCandidateIndex >= 0) {
+            commitCandidate();
+        }
+        reset();
+    }
+
+    // 記録時と候補が違うことがあるので、番号は候補の数に丸める
+    private void clickCandidate(int index) {
+        if (mCandidateIndex >= 0 && mClauseIndex < mClauses.size() - 1) {
+            Clause clause = mClauses.get(mClauseIndex);
+            clause.index = Math.min(index, clause.candidates.size() - 1);
+            mClauseIndex++;
+            mCandidateIndex = mClauses.get(mClauseIndex).index;
+            return;
+        }
+        if (mCandidateIndex < 0) {
+            if (mCandidates.size() == 0) {
+                return;
+            }
+            mClauses.add(new Clause(mComposing.toString(), mCandidates, Math.min(index, mCandidates.size() - 1)));
+        } else {
+            Clause clause = mClauses.get(mClauseIndex);
+            clause.index = Math.min(index, clause.candidates.size() - 1);
+        }
+        commitCandidate();
+        reset();
+    }
+
+    private void updateSuggestion() {
+        resetCandidate();
+        if (mLive) {
+            mEngine.liveConvert(mComposing, getMode());
+        }
+        mCandidates = mEngine.suggest(mComposing, getMode());
+    }
+
+    private void commitCandidate() {
+        for (Clause clause : mClauses) {
+            if (clause.index >= 0) {
+                CandidateList.Candidate candidate = clause.candidates.get(clause.index);
+                mDictionary.add(candidate.key, candidate.value);
+            }
+        }
+    }
+
+    private void reset() {
+        mComposing.setLength(0);
+        resetCandidate();
+    }
+
+    private void resetCandidate() {
+        mCandidates = new CandidateList();
+        mClauses.clear();
+        mClauseIndex = 0;
+        mCandidateIndex = -1;
+    }
+
+    private void report(int eventNum) {
+        System.out.printf("%d events%n", eventNum);
+        System.out.printf("%-10s %8s %9s %9s %9s %9s  (ms)%n", "event", "count", "p50", "p90", "p99", "max");
+        for (int event = 1; event < KeyTrace.EVENT_NUM; event++) {
+            int n = mSampleNum[event];
+            if (n == 0) {
+                continue;
+            }
+            long[] samples = Arrays.copyOf(mSamples[event], n);
+            Arrays.sort(samples);
+            System.out.printf("%-10s %8d %9.3f %9.3f %9.3f %9.3f%n", KeyTrace.getEventName(event), n,
+                    percentile(samples, 50), percentile(samples, 90), percentile(samples, 99), samples[n - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(sorted.length * p / 100.0) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}